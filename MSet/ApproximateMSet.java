@@ -0,0 +1,250 @@
+import java.util.function.ToLongFunction;
+
+/**
+        An ApproximateMSet counts the elements of a stream that is too large to keep, in a fixed amount
+        of memory. Like an MSet it supports add, count, size and unique, but:
+
+            count comes from a Count-Min Sketch: a table of depth rows of width counters, where each
+            element adds to one counter per row and its count is the smallest of those counters. The
+            estimate is never too low, and with probability at least confidence it is too high by no
+            more than epsilon times size().
+
+            unique comes from a HyperLogLog: 2^precision small registers, each holding the longest run
+            of leading zero bits seen among the hashes of the elements that fall into it. Its relative
+            standard error is about 1.04 / sqrt( 2^precision ).
+
+        Both sketches work from a 64-bit hash of each element. By default it is spread from the
+        element's hashCode, which has only 32 bits: elements with equal hash codes are counted as the
+        same element by both sketches, so unique cannot tell apart more than about 2^32 elements and
+        falls increasingly short well before that (by roughly 10% at a billion elements with random
+        hash codes). For larger streams, supply a hash function that computes 64 bits from the element
+        itself (see mix, for elements that are or contain longs).
+
+        Two ApproximateMSets built with the same parameters and hash functions that compute the same
+        hashes can be merged, e.g., to combine sketches that were built by separate threads. merge can
+        only check the parameters: two functions cannot be compared for whether they compute the same
+        hashes (and two evaluations of the same lambda may or may not be the same object), so it is up
+        to the caller not to merge sketches whose hash functions differ, whose merged estimates would
+        be meaningless.
+*/
+
+public class ApproximateMSet extends Object {
+
+        private long[][] counters;
+        private byte[] registers;
+        private int width;
+        private int depth;
+        private int precision;
+        private long numberOfElements;
+        private ToLongFunction hashFunction;
+        private static final int defaultPrecision = 14;
+        private static final ToLongFunction defaultHashFunction = o -> mix( o.hashCode() );
+
+        /** Constructs an ApproximateMSet whose counts are too high by at most epsilon times the number of
+                elements added, with at least the specified confidence. */
+        public ApproximateMSet ( double epsilon, double confidence ) {
+            this( epsilon, confidence, defaultPrecision );
+        }
+
+        /** Constructs an ApproximateMSet whose counts are too high by at most epsilon times the number of
+                elements added, with at least the specified confidence, and which estimates the number of
+                unique elements with 2^precision registers (precision must be between 4 and 18). */
+        public ApproximateMSet ( double epsilon, double confidence, int precision ) {
+            this( epsilon, confidence, precision, defaultHashFunction );
+        }
+
+        /** [ADDED] Constructs an ApproximateMSet like ApproximateMSet( epsilon, confidence, precision ), which
+                hashes its elements with the specified function. The function must return equal hashes for
+                equal elements, and should spread distinct elements evenly over all 64 bits. */
+        public ApproximateMSet ( double epsilon, double confidence, int precision, ToLongFunction hashFunction ) {
+
+            if ( hashFunction == null ) {
+                throw new NullPointerException();
+            }
+            else if ( !( epsilon > 0.0 ) || !( epsilon < 1.0 ) || !( confidence > 0.0 ) || !( confidence < 1.0 ) ) {
+                throw new IllegalArgumentException();
+            }
+            else if ( ( precision < 4 ) || ( precision > 18 ) ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                width = ( int ) Math.ceil( Math.E / epsilon );
+                depth = ( int ) Math.ceil( Math.log( 1.0 / ( 1.0 - confidence ) ) );
+                this.precision = precision;
+                this.hashFunction = hashFunction;
+                counters = new long[ depth ][ width ];
+                registers = new byte[ 1 << precision ];
+                numberOfElements = 0;
+            }
+        }
+
+        /** Adds a copy of the specified element to this ApproximateMSet. */
+        public boolean add ( Object o ) {
+            return add( o, 1 );
+        }
+
+        /** Adds the specified (non-negative) number of copies of an element to this ApproximateMSet.
+                Returns true if this ApproximateMSet changed IN ANY WAY as a result of the call. */
+        public boolean add ( Object o, int copies ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else if ( copies < 0 ) {
+                throw new IllegalArgumentException();
+            }
+            else if ( copies == 0 ) {
+                return false;
+            }
+            else {
+                long hash = hashFunction.applyAsLong( o );
+                /*
+                    Adds the copies to one counter in each row of the sketch.
+                */
+                for ( int row = 0; row < depth; row++ ) {
+                    counters[ row ][ getColumn( hash, row ) ] += copies;
+                }
+                /*
+                    The upper bits of the hash choose a register, and the number of leading zeros in the
+                    remaining bits (plus one) is recorded in it if it is the largest seen so far.
+                */
+                int register = ( int ) ( hash >>> ( 64 - precision ) );
+                int rank = Long.numberOfLeadingZeros( ( hash << precision ) | ( 1L << ( precision - 1 ) ) ) + 1;
+
+                if ( rank > registers[ register ] ) {
+                    registers[ register ] = ( byte ) rank;
+                }
+
+                numberOfElements += copies;
+                return true;
+            }
+        }
+
+        /** Removes all of the elements from this ApproximateMSet. */
+        public void clear () {
+            counters = new long[ depth ][ width ];
+            registers = new byte[ 1 << precision ];
+            numberOfElements = 0;
+        }
+
+        /** Returns an estimate of the number of copies of the specified element in this ApproximateMSet.
+                The estimate is never lower than the actual number of copies. */
+        public long count ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                long hash = hashFunction.applyAsLong( o );
+                long estimate = Long.MAX_VALUE;
+
+                for ( int row = 0; row < depth; row++ ) {
+                    estimate = Math.min( estimate, counters[ row ][ getColumn( hash, row ) ] );
+                }
+
+                return estimate;
+            }
+        }
+
+        /** Returns true if this ApproximateMSet may contain the specified element. A false answer is always
+                right; a true answer may be wrong. */
+        public boolean contains ( Object o ) {
+            return ( count( o ) > 0 );
+        }
+
+        /** Returns true if no elements have been added to this ApproximateMSet. */
+        public boolean isEmpty () {
+            return ( numberOfElements == 0 );
+        }
+
+        /** Adds all of the elements of the specified ApproximateMSet, which must have been constructed with
+                the same parameters, to this ApproximateMSet. Throws an IllegalArgumentException if its width,
+                depth or precision differ. Its hash function is not checked, and must compute the same hashes
+                as the hash function of this ApproximateMSet. */
+        public void merge ( ApproximateMSet sketch ) {
+
+            if ( sketch == null ) {
+                throw new NullPointerException();
+            }
+            else if ( ( sketch.width != width ) || ( sketch.depth != depth ) || ( sketch.precision != precision ) ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+
+                for ( int row = 0; row < depth; row++ ) {
+
+                    for ( int column = 0; column < width; column++ ) {
+                        counters[ row ][ column ] += sketch.counters[ row ][ column ];
+                    }
+                }
+
+                for ( int i = 0; i < registers.length; i++ ) {
+
+                    if ( sketch.registers[ i ] > registers[ i ] ) {
+                        registers[ i ] = sketch.registers[ i ];
+                    }
+                }
+
+                numberOfElements += sketch.numberOfElements;
+            }
+        }
+
+        /** Returns the number of elements added to this ApproximateMSet, including duplicates. This number is
+                exact. */
+        public long size () {
+            return numberOfElements;
+        }
+
+        /** Returns an estimate of the number of UNIQUE elements added to this ApproximateMSet. */
+        public long unique () {
+            int m = registers.length;
+            double sum = 0.0;
+            int numberOfEmptyRegisters = 0;
+
+            for ( int i = 0; i < m; i++ ) {
+                sum += 1.0 / ( 1L << registers[ i ] );
+
+                if ( registers[ i ] == 0 ) {
+                    numberOfEmptyRegisters += 1;
+                }
+            }
+
+            double alpha = 0.7213 / ( 1.0 + 1.079 / m );
+            double estimate = alpha * m * m / sum;
+            /*
+                For small numbers of elements, counting the empty registers gives a better estimate.
+            */
+            if ( ( estimate <= 2.5 * m ) && ( numberOfEmptyRegisters > 0 ) ) {
+                estimate = m * Math.log( ( double ) m / numberOfEmptyRegisters );
+            }
+
+            return Math.round( estimate );
+        }
+
+        /*
+            Returns the column of the counter for an element (with the specified hash) in the specified row
+            of the sketch. Each row combines the two halves of the hash differently, which makes the rows
+            behave as independent hash functions.
+        */
+        private int getColumn ( long hash, int row ) {
+            int h = ( int ) hash + ( row + 1 ) * ( int ) ( hash >>> 32 );
+            return ( ( h & Integer.MAX_VALUE ) % width );
+        }
+
+        /** [ADDED] Returns a well-mixed 64-bit hash of the specified value, which a hash function can apply to
+                a long (or combination of longs) computed from an element. Distinct values have distinct
+                hashes. */
+        public static long mix ( long value ) {
+            long h = value * 0x9e3779b97f4a7c15L;
+            h = ( h ^ ( h >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+            h = ( h ^ ( h >>> 27 ) ) * 0x94d049bb133111ebL;
+            return ( h ^ ( h >>> 31 ) );
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Returns a stringy representation of this ApproximateMSet. Overrides Object.toString(). */
+        public String toString () {
+            return "size: " + size() + ", unique: ~" + unique() + ", width: " + width + ", depth: " + depth;
+        }
+}
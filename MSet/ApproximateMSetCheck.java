@@ -0,0 +1,168 @@
+import java.util.Random;
+
+/**
+        ApproximateMSetCheck checks the error bounds of an ApproximateMSet on a Zipf-distributed stream,
+        where a few hot elements make up much of the stream and most elements appear only a few times:
+
+            count: no estimate is below the true count, and the fraction of elements whose estimate is
+            too high by more than epsilon times size() is no more than 1 - confidence.
+
+            unique: for each precision, the estimate is within three standard errors
+            (3 * 1.04 / sqrt( 2^precision )) of the true number of unique elements.
+
+            merge: a sketch merged from sketches of parts of the stream gives the same estimates as a
+            sketch of the whole stream.
+
+        It also adds a larger stream of unique Long elements with a 64-bit hash function, and checks
+        unique against its three-standard-error bound.
+
+        It prints each measured error beside its bound, and exits with a status of 1 if any check fails.
+
+        Usage: java ApproximateMSetCheck [stream size [distinct elements [Zipf exponent]]]
+        The stream size defaults to 10000000, the number of distinct elements to 1000000 and the
+        exponent to 1.1.
+*/
+
+public class ApproximateMSetCheck extends Object {
+
+        private static final int defaultStreamSize = 10000000;
+        private static final int defaultNumberOfDistinctElements = 1000000;
+        private static final double defaultExponent = 1.1;
+        private static final double epsilon = 0.0001;
+        private static final double confidence = 0.99;
+        private static final int[] precisions = { 10, 14, 18 };
+        private static final int numberOfParts = 4;
+        private static final long numberOfLongElements = 50000000L;
+
+        public static void main ( String[] args ) {
+            int streamSize = ( ( args.length > 0 ) ? Integer.parseInt( args[ 0 ] ) : defaultStreamSize );
+            int numberOfDistinctElements = ( ( args.length > 1 ) ? Integer.parseInt( args[ 1 ] ) : defaultNumberOfDistinctElements );
+            double exponent = ( ( args.length > 2 ) ? Double.parseDouble( args[ 2 ] ) : defaultExponent );
+            MSetChecks checks = new MSetChecks();
+            Integer[] stream = generate( streamSize, numberOfDistinctElements, exponent );
+            int[] counts = new int[ numberOfDistinctElements ];
+            int numberOfUniqueElements = 0;
+
+            for ( Integer o : stream ) {
+
+                if ( counts[ o.intValue() ] == 0 ) {
+                    numberOfUniqueElements += 1;
+                }
+
+                counts[ o.intValue() ] += 1;
+            }
+
+            System.out.printf( "%d elements, %d unique, Zipf exponent %.2f%n", streamSize, numberOfUniqueElements, exponent );
+
+            ApproximateMSet sketch = new ApproximateMSet( epsilon, confidence );
+            ApproximateMSet merged = new ApproximateMSet( epsilon, confidence );
+
+            for ( int part = 0; part < numberOfParts; part++ ) {
+                ApproximateMSet partSketch = new ApproximateMSet( epsilon, confidence );
+
+                for ( int i = part; i < stream.length; i += numberOfParts ) {
+                    partSketch.add( stream[ i ] );
+                }
+
+                merged.merge( partSketch );
+            }
+
+            for ( Integer o : stream ) {
+                sketch.add( o );
+            }
+            /*
+                Checks the Count-Min Sketch against the true count of every element that appeared.
+            */
+            long bound = ( long ) ( epsilon * sketch.size() );
+            int numberOfUnderestimates = 0;
+            int numberOfOverBound = 0;
+            long maximumError = 0;
+            boolean isMergeEqual = ( merged.size() == sketch.size() ) && ( merged.unique() == sketch.unique() );
+
+            for ( int k = 0; k < numberOfDistinctElements; k++ ) {
+
+                if ( counts[ k ] > 0 ) {
+                    Integer o = Integer.valueOf( k );
+                    long estimate = sketch.count( o );
+                    long error = estimate - counts[ k ];
+
+                    if ( error < 0 ) {
+                        numberOfUnderestimates += 1;
+                    }
+                    else if ( error > bound ) {
+                        numberOfOverBound += 1;
+                    }
+
+                    maximumError = Math.max( maximumError, error );
+                    isMergeEqual &= ( merged.count( o ) == estimate );
+                }
+            }
+
+            double fractionOverBound = ( double ) numberOfOverBound / numberOfUniqueElements;
+            System.out.printf( "count: epsilon * size %d, largest error %d, %.4f%% of elements over it (at most %.4f%%)%n",
+                    bound, maximumError, 100.0 * fractionOverBound, 100.0 * ( 1.0 - confidence ) );
+            checks.check( "count is never too low", numberOfUnderestimates == 0 );
+            checks.check( "count is within epsilon * size with the given confidence", fractionOverBound <= 1.0 - confidence );
+            checks.check( "merge of " + numberOfParts + " parts equals the whole", isMergeEqual );
+            /*
+                Checks the HyperLogLog at each precision.
+            */
+            for ( int precision : precisions ) {
+                ApproximateMSet uniqueSketch = new ApproximateMSet( 0.01, 0.5, precision );
+
+                for ( Integer o : stream ) {
+                    uniqueSketch.add( o );
+                }
+
+                checkUnique( checks, "unique at precision " + precision, uniqueSketch, precision, numberOfUniqueElements );
+            }
+            /*
+                Checks the HyperLogLog on many unique Long elements, hashed over all 64 bits.
+            */
+            ApproximateMSet longSketch = new ApproximateMSet( 0.01, 0.5, 14, o -> ApproximateMSet.mix( ( ( Long ) o ).longValue() ) );
+
+            for ( long i = 0; i < numberOfLongElements; i++ ) {
+                longSketch.add( Long.valueOf( i ) );
+            }
+
+            checkUnique( checks, "unique of " + numberOfLongElements + " Longs with a 64-bit hash", longSketch, 14, numberOfLongElements );
+
+            checks.exitIfFailed();
+        }
+
+        /*
+            Returns a stream of Integers from 0 to numberOfDistinctElements - 1, where the element of rank
+            k (counting from one) is drawn with a probability proportional to 1 / k to the power of the
+            exponent.
+        */
+        private static Integer[] generate ( int streamSize, int numberOfDistinctElements, double exponent ) {
+            Random random = new Random( 42 );
+            double[] cumulative = new double[ numberOfDistinctElements ];
+            double total = 0;
+
+            for ( int k = 0; k < numberOfDistinctElements; k++ ) {
+                total += 1.0 / Math.pow( k + 1, exponent );
+                cumulative[ k ] = total;
+            }
+
+            Integer[] stream = new Integer[ streamSize ];
+
+            for ( int i = 0; i < streamSize; i++ ) {
+                int k = java.util.Arrays.binarySearch( cumulative, random.nextDouble() * total );
+                stream[ i ] = Integer.valueOf( Math.min( ( k < 0 ) ? -k - 1 : k, numberOfDistinctElements - 1 ) );
+            }
+
+            return stream;
+        }
+
+        /*
+            Checks that the unique estimate of the sketch (with the specified precision) is within three
+            standard errors of the true number of unique elements.
+        */
+        private static void checkUnique ( MSetChecks checks, String name, ApproximateMSet sketch, int precision, long numberOfUniqueElements ) {
+            double standardError = 1.04 / Math.sqrt( 1 << precision );
+            double error = Math.abs( ( double ) sketch.unique() / numberOfUniqueElements - 1.0 );
+            System.out.printf( "%s: estimate %d, relative error %.4f (at most %.4f)%n", name, sketch.unique(), error, 3 * standardError );
+            checks.check( name, error <= 3 * standardError );
+        }
+}
@@ -0,0 +1,760 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+        A ConcurrentMSet is an unordered collection that allows duplicates and that may be shared by
+        many threads. Its elements are split by hash across a fixed number of stripes, each of which
+        is an ordinary MSet guarded by its own lock, so threads that add or reduce different elements
+        rarely wait for one another. Every copy of an element lives in the same stripe, which keeps
+        count, reduce and unique exact.
+
+        Threads that add the same element still meet at the lock of its stripe, so an element that is
+        often added while another thread holds that lock is promoted to a hot cell: its copies move out
+        of the MSet and into a LongAdder, which many threads can increment at once without a lock and
+        without contending for one memory location. Adding a hot element takes no lock at all; reducing
+        or removing one still takes the lock of its stripe, so that its count never drops below zero.
+        Each stripe holds at most a few hot cells, which are kept until the ConcurrentMSet is cleared.
+
+        Operations that span the whole bag (size, unique, isEmpty, iteration, toString, etc.) visit
+        the stripes one at a time and are therefore only weakly consistent: they reflect each stripe as
+        it was when that stripe was visited. Iterators never throw a ConcurrentModificationException.
+*/
+
+public class ConcurrentMSet extends Object implements Collection {
+
+        private final ConcurrentMSetStripe[] stripes;
+        private final int bitsPerStripe;
+        private static final int maximumNumberOfStripes = 1 << 16;
+        static final int defaultNumberOfHotCells = 8;
+
+        /** Constructs a ConcurrentMSet with no elements, striped for the number of available processors. */
+        public ConcurrentMSet () {
+            this( 4 * Runtime.getRuntime().availableProcessors() );
+        }
+
+        /** Constructs a ConcurrentMSet with no elements and (at least) the specified number of stripes. */
+        public ConcurrentMSet ( int concurrencyLevel ) {
+            this( concurrencyLevel, defaultNumberOfHotCells );
+        }
+
+        /*
+            Constructs a ConcurrentMSet with no elements, (at least) the specified number of stripes and at
+            most the specified number of hot cells in each stripe (none, if it is zero).
+        */
+        ConcurrentMSet ( int concurrencyLevel, int maximumNumberOfHotCells ) {
+
+            if ( ( concurrencyLevel <= 0 ) || ( maximumNumberOfHotCells < 0 ) ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                int numberOfStripes = 1;
+                int bits = 0;
+                /*
+                    The number of stripes is rounded up to a power of two, so that a stripe can be chosen
+                    from the upper bits of the hash of an element.
+                */
+                while ( ( numberOfStripes < concurrencyLevel ) && ( numberOfStripes < maximumNumberOfStripes ) ) {
+                    numberOfStripes *= 2;
+                    bits += 1;
+                }
+
+                bitsPerStripe = bits;
+                stripes = new ConcurrentMSetStripe[ numberOfStripes ];
+
+                for ( int i = 0; i < numberOfStripes; i++ ) {
+                    stripes[ i ] = new ConcurrentMSetStripe( maximumNumberOfHotCells );
+                }
+            }
+        }
+
+        /** Constructs a ConcurrentMSet from the given collection. */
+        public ConcurrentMSet ( Collection c ) {
+            this();
+            this.addAll( c );
+        }
+
+        /** Ensures that this collection contains the specified element.
+            Returns true if this collection changed IN ANY WAY as a result of the call. */
+        public boolean add ( Object o ) {
+            ConcurrentMSetStripe stripe = stripeOf( o );
+            LongAdder cell = stripe.hotCellOf( o );
+            /*
+                A hot element is counted without taking the lock.
+            */
+            if ( cell != null ) {
+                cell.increment();
+                return true;
+            }
+            /*
+                Otherwise, the element is added under the lock. If another thread holds the lock, the add
+                is noted as contended, which may make the element hot.
+            */
+            boolean isContended = !stripe.lock.tryLock();
+
+            if ( isContended ) {
+                stripe.lock.lock();
+            }
+
+            try {
+                return stripe.add( o, isContended );
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        /** Adds all of the elements in the specified collection to this collection. */
+        public boolean addAll ( Collection c ) {
+            boolean bagChanged = true;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+                    this.add( o );
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /** Removes all of the elements from this collection, one stripe at a time. */
+        public void clear () {
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+                stripes[ i ].lock.lock();
+
+                try {
+                    stripes[ i ].clear();
+                }
+                finally {
+                    stripes[ i ].lock.unlock();
+                }
+            }
+        }
+
+        /** Returns true if this collection contains the specified element. */
+        public boolean contains ( Object o ) {
+            return ( this.count( o ) > 0 );
+        }
+
+        /** Returns true if this collection contains all of the elements in the specified collection. */
+        public boolean containsAll ( Collection c ) {
+            boolean bagContainsElements = true;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+
+                    if ( !this.contains( o ) ) {
+                        bagContainsElements = false;
+                        break;
+                    }
+                }
+            }
+
+            return bagContainsElements;
+        }
+
+        /** Returns the number of copies of the specified element in this collection (or Integer.MAX_VALUE,
+                if there are more). */
+        public int count ( Object o ) {
+            ConcurrentMSetStripe stripe = stripeOf( o );
+            LongAdder cell = stripe.hotCellOf( o );
+            /*
+                A hot element is counted without taking the lock.
+            */
+            if ( cell != null ) {
+                return ( int ) Math.min( Math.max( cell.sum(), 0 ), Integer.MAX_VALUE );
+            }
+
+            stripe.lock.lock();
+
+            try {
+                return stripe.count( o );
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        /** Returns true if this collection contains no elements. */
+        public boolean isEmpty () {
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+
+                if ( sizeOf( i ) > 0 ) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /** Returns a weakly consistent iterator over the UNIQUE elements in this collection.
+                There are no guarantees concerning the order in which the elements are returned. */
+        public Iterator iterator () {
+            return new ConcurrentMSetIterator( this );
+        }
+
+        /** Removes all instances of the specified element from this collection. */
+        public boolean remove ( Object o ) {
+            ConcurrentMSetStripe stripe = stripeOf( o );
+            stripe.lock.lock();
+
+            try {
+                return stripe.remove( o );
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        /** Removes all of this collection's elements that are also contained in the specified collection. */
+        public boolean removeAll ( Collection c ) {
+            return removeUniqueElements( c, false );
+        }
+
+        /** Retains only the elements in this collection that are contained in the specified collection. */
+        public boolean retainAll ( Collection c ) {
+            return removeUniqueElements( c, true );
+        }
+
+        /** Decrements the number of copies of o in this collection. Returns true iff this collection
+                changed as a result of the operation. */
+        public boolean reduce ( Object o ) {
+            ConcurrentMSetStripe stripe = stripeOf( o );
+            stripe.lock.lock();
+
+            try {
+                return stripe.reduce( o );
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        /** Returns the number of elements in this collection, including duplicates (or Integer.MAX_VALUE,
+                if there are more). */
+        public int size () {
+            long numberOfElements = 0;
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+                numberOfElements += sizeOf( i );
+            }
+
+            return ( int ) Math.min( numberOfElements, Integer.MAX_VALUE );
+        }
+
+        /** Returns the number of UNIQUE elements in this collection (i.e., not including duplicates). */
+        public int unique () {
+            long numberOfUniqueElements = 0;
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+                stripes[ i ].lock.lock();
+
+                try {
+                    numberOfUniqueElements += stripes[ i ].unique();
+                }
+                finally {
+                    stripes[ i ].lock.unlock();
+                }
+            }
+
+            return ( int ) Math.min( numberOfUniqueElements, Integer.MAX_VALUE );
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection. */
+        public Object[] toArray () {
+            return toArray( new Object[ 0 ] );
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection, in the specified array
+                if it is large enough (in which case the position after the last element, if any, is set to
+                null), or else in a new array of the same runtime type. Each stripe is copied while it is
+                locked, as in toArray(), so the array holds a consistent view of each stripe but not of the
+                whole collection. */
+        public Object[] toArray ( Object[] a ) {
+
+            if ( a == null ) {
+                throw new NullPointerException();
+            }
+
+            Object[][] uniqueElementsOfStripes = new Object[ stripes.length ][];
+            int numberOfUniqueElements = 0;
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+                uniqueElementsOfStripes[ i ] = uniqueElementsOf( i );
+                numberOfUniqueElements += uniqueElementsOfStripes[ i ].length;
+            }
+
+            if ( a.length < numberOfUniqueElements ) {
+                a = ( Object[] ) java.lang.reflect.Array.newInstance( a.getClass().getComponentType(), numberOfUniqueElements );
+            }
+            else if ( a.length > numberOfUniqueElements ) {
+                a[ numberOfUniqueElements ] = null;
+            }
+
+            int position = 0;
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+                System.arraycopy( uniqueElementsOfStripes[ i ], 0, a, position, uniqueElementsOfStripes[ i ].length );
+                position += uniqueElementsOfStripes[ i ].length;
+            }
+
+            return a;
+        }
+
+        /*
+            Returns the number of stripes of this ConcurrentMSet.
+        */
+        int numberOfStripes () {
+            return stripes.length;
+        }
+
+        /*
+            Returns a copy of the unique elements of the specified stripe.
+        */
+        Object[] uniqueElementsOf ( int stripe ) {
+            stripes[ stripe ].lock.lock();
+
+            try {
+                return stripes[ stripe ].toArray();
+            }
+            finally {
+                stripes[ stripe ].lock.unlock();
+            }
+        }
+
+        /*
+            Returns the number of elements, including duplicates, in the specified stripe.
+        */
+        private long sizeOf ( int stripe ) {
+            stripes[ stripe ].lock.lock();
+
+            try {
+                return stripes[ stripe ].size();
+            }
+            finally {
+                stripes[ stripe ].lock.unlock();
+            }
+        }
+
+        /*
+            Removes all copies of every unique element that is (if retainContained is false) or is not
+            (if retainContained is true) contained within the specified collection, one stripe at a time.
+        */
+        private boolean removeUniqueElements ( Collection c, boolean retainContained ) {
+            boolean bagChanged = false;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                MSet lookup = lookupOf( c );
+
+                for ( int i = 0; i < stripes.length; i++ ) {
+                    stripes[ i ].lock.lock();
+
+                    try {
+                        bagChanged |= stripes[ i ].removeUniqueElements( lookup, retainContained );
+                    }
+                    finally {
+                        stripes[ i ].lock.unlock();
+                    }
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /*
+            Returns the stripe that holds every copy of the specified element. The stripe is chosen from
+            the upper bits of a mixed hash, since each stripe indexes its elements by the lower bits.
+        */
+        private ConcurrentMSetStripe stripeOf ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else if ( bitsPerStripe == 0 ) {
+                return stripes[ 0 ];
+            }
+            else {
+                int h = o.hashCode() * 0x9e3779b9;
+                h ^= ( h >>> 15 );
+                return stripes[ ( h * 0x85ebca6b ) >>> ( 32 - bitsPerStripe ) ];
+            }
+        }
+
+        /*
+            Returns an MSet that can be used to look up the elements of the specified collection from every
+            stripe, copying the collection once if it is not already an MSet.
+        */
+        private static MSet lookupOf ( Collection c ) {
+
+            if ( c instanceof MSet ) {
+                return ( MSet ) c;
+            }
+            else {
+                return new MSet( c );
+            }
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Returns a stringy representation of this ConcurrentMSet. Overrides Object.toString(). */
+        public String toString () {
+            StringBuilder s = new StringBuilder();
+
+            for ( int i = 0; i < stripes.length; i++ ) {
+                stripes[ i ].lock.lock();
+
+                try {
+                    stripes[ i ].writeTo( s );
+                }
+                finally {
+                    stripes[ i ].lock.unlock();
+                }
+            }
+
+            return s.toString();
+        }
+}
+
+/*
+    A stripe of a ConcurrentMSet: an MSet of the elements that hash to the stripe, the hot cells of the
+    elements of the stripe that have been promoted, and the lock that guards both. Every method but
+    hotCellOf must be called with the lock held. An element is either in the MSet or in a hot cell,
+    never both, since elements are only promoted under the lock and every method checks the hot cells
+    first.
+*/
+class ConcurrentMSetStripe {
+
+    final ReentrantLock lock;
+    private final MSet bag;
+    private final MSet contendedElements;
+    private final int maximumNumberOfHotCells;
+    /*
+        The array of hot cells is replaced (never changed in place) when an element is promoted, so that
+        hotCellOf can read it without the lock.
+    */
+    private volatile ConcurrentMSetHotCell[] hotCells;
+    private static final int contendedAddsBeforePromotion = 16;
+    private static final int maximumNumberOfContendedElements = 64;
+
+    ConcurrentMSetStripe ( int maximumNumberOfHotCells ) {
+        lock = new ReentrantLock();
+        bag = new MSet();
+        contendedElements = new MSet();
+        this.maximumNumberOfHotCells = maximumNumberOfHotCells;
+        hotCells = new ConcurrentMSetHotCell[ 0 ];
+    }
+
+    /*
+        Returns the counter of the specified element, if the element is hot, or else null.
+    */
+    LongAdder hotCellOf ( Object o ) {
+        ConcurrentMSetHotCell[] cells = hotCells;
+
+        for ( int i = 0; i < cells.length; i++ ) {
+
+            if ( cells[ i ].element.equals( o ) ) {
+                return cells[ i ].copies;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+        Adds a copy of the specified element. If the add had to wait for the lock, it is tallied against
+        the element, which is promoted to a hot cell once enough of its adds have had to wait.
+    */
+    boolean add ( Object o, boolean isContended ) {
+        LongAdder cell = hotCellOf( o );
+
+        if ( cell != null ) {
+            cell.increment();
+        }
+        else {
+            bag.add( o );
+
+            if ( isContended && ( hotCells.length < maximumNumberOfHotCells ) ) {
+                contendedElements.add( o );
+
+                if ( contendedElements.count( o ) >= contendedAddsBeforePromotion ) {
+                    promote( o );
+                    contendedElements.clear();
+                }
+                /*
+                    The tally only needs to find the elements that are hot now, so it is started over
+                    rather than allowed to grow.
+                */
+                else if ( contendedElements.unique() > maximumNumberOfContendedElements ) {
+                    contendedElements.clear();
+                }
+            }
+        }
+
+        return true;
+    }
+
+    int count ( Object o ) {
+        LongAdder cell = hotCellOf( o );
+
+        if ( cell != null ) {
+            return ( int ) Math.min( cell.sum(), Integer.MAX_VALUE );
+        }
+        else {
+            return bag.count( o );
+        }
+    }
+
+    /*
+        Decrements the number of copies of the specified element. Copies of a hot element are only added
+        (not reduced) without the lock, so its count cannot drop between reading it and decrementing it.
+    */
+    boolean reduce ( Object o ) {
+        LongAdder cell = hotCellOf( o );
+
+        if ( cell == null ) {
+            return bag.reduce( o );
+        }
+        else if ( cell.sum() > 0 ) {
+            cell.decrement();
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+
+    boolean remove ( Object o ) {
+        LongAdder cell = hotCellOf( o );
+
+        if ( cell == null ) {
+            return bag.remove( o );
+        }
+        else {
+            return takeAll( cell );
+        }
+    }
+
+    /*
+        Removes all copies of every unique element that is (if retainContained is false) or is not (if
+        retainContained is true) contained within the specified MSet.
+    */
+    boolean removeUniqueElements ( MSet lookup, boolean retainContained ) {
+        boolean bagChanged = ( retainContained ? bag.retainAll( lookup ) : bag.removeAll( lookup ) );
+        ConcurrentMSetHotCell[] cells = hotCells;
+
+        for ( int i = 0; i < cells.length; i++ ) {
+
+            if ( lookup.contains( cells[ i ].element ) != retainContained ) {
+                bagChanged |= takeAll( cells[ i ].copies );
+            }
+        }
+
+        return bagChanged;
+    }
+
+    /*
+        Removes every element, and lets go of the hot cells. An add that read the old hot cells just
+        before they were let go is lost, as if it had been made just before the stripe was cleared.
+    */
+    void clear () {
+        bag.clear();
+        contendedElements.clear();
+        hotCells = new ConcurrentMSetHotCell[ 0 ];
+    }
+
+    long size () {
+        long numberOfElements = bag.size();
+        ConcurrentMSetHotCell[] cells = hotCells;
+
+        for ( int i = 0; i < cells.length; i++ ) {
+            numberOfElements += cells[ i ].copies.sum();
+        }
+
+        return numberOfElements;
+    }
+
+    int unique () {
+        int numberOfUniqueElements = bag.unique();
+        ConcurrentMSetHotCell[] cells = hotCells;
+
+        for ( int i = 0; i < cells.length; i++ ) {
+
+            if ( cells[ i ].copies.sum() > 0 ) {
+                numberOfUniqueElements += 1;
+            }
+        }
+
+        return numberOfUniqueElements;
+    }
+
+    /*
+        Returns a copy of the unique elements of this stripe, with the hot elements that have any copies
+        after the elements of the MSet.
+    */
+    Object[] toArray () {
+        ConcurrentMSetHotCell[] cells = hotCells;
+        int numberOfUniqueElements = bag.unique();
+        Object[] uniqueElements = bag.toArray( new Object[ numberOfUniqueElements + cells.length ] );
+
+        for ( int i = 0; i < cells.length; i++ ) {
+
+            if ( cells[ i ].copies.sum() > 0 ) {
+                uniqueElements[ numberOfUniqueElements ] = cells[ i ].element;
+                numberOfUniqueElements += 1;
+            }
+        }
+
+        return java.util.Arrays.copyOf( uniqueElements, numberOfUniqueElements );
+    }
+
+    /*
+        Appends the elements of this stripe, including duplicates, to the specified StringBuilder, after
+        a separator if the StringBuilder already holds any elements.
+    */
+    void writeTo ( StringBuilder s ) {
+        ConcurrentMSetHotCell[] cells = hotCells;
+
+        try {
+
+            if ( !bag.isEmpty() ) {
+
+                if ( s.length() > 0 ) {
+                    s.append( ", " );
+                }
+
+                bag.writeTo( s );
+            }
+        }
+        /*
+            A StringBuilder never throws an IOException.
+        */
+        catch ( IOException e ) {
+            throw new java.io.UncheckedIOException( e );
+        }
+
+        for ( int i = 0; i < cells.length; i++ ) {
+
+            for ( long j = cells[ i ].copies.sum(); j > 0; j-- ) {
+
+                if ( s.length() > 0 ) {
+                    s.append( ", " );
+                }
+
+                s.append( cells[ i ].element );
+            }
+        }
+    }
+
+    /*
+        Moves every copy of the specified element out of the MSet and into a new hot cell.
+    */
+    private void promote ( Object o ) {
+        ConcurrentMSetHotCell cell = new ConcurrentMSetHotCell( o );
+        ConcurrentMSetHotCell[] cells = java.util.Arrays.copyOf( hotCells, hotCells.length + 1 );
+        cell.copies.add( bag.count( o ) );
+        bag.remove( o );
+        cells[ cells.length - 1 ] = cell;
+        hotCells = cells;
+    }
+
+    /*
+        Removes all copies of a hot element, keeping any that are added while it is being removed. Returns
+        true iff the element had any copies.
+    */
+    private static boolean takeAll ( LongAdder cell ) {
+        long copies = cell.sum();
+
+        if ( copies > 0 ) {
+            cell.add( -copies );
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+}
+
+/*
+    A hot element of a ConcurrentMSet, and the counter of its copies.
+*/
+class ConcurrentMSetHotCell {
+
+    final Object element;
+    final LongAdder copies;
+
+    ConcurrentMSetHotCell ( Object element ) {
+        this.element = element;
+        copies = new LongAdder();
+    }
+}
+
+/*
+    A weakly consistent Iterator over the unique elements of a ConcurrentMSet. It copies the unique
+    elements of one stripe at a time, when it reaches that stripe.
+*/
+class ConcurrentMSetIterator implements Iterator {
+
+    private ConcurrentMSet bag;
+    private int stripe;
+    private Object[] uniqueElements;
+    private int index;
+    private Object lastReturned;
+
+    public ConcurrentMSetIterator ( ConcurrentMSet bag ) {
+        this.bag = bag;
+        stripe = -1;
+        uniqueElements = new Object[ 0 ];
+        index = 0;
+        lastReturned = null;
+    }
+
+    public boolean hasNext () {
+
+        while ( ( index >= uniqueElements.length ) && ( stripe + 1 < bag.numberOfStripes() ) ) {
+            stripe += 1;
+            uniqueElements = bag.uniqueElementsOf( stripe );
+            index = 0;
+        }
+
+        return ( index < uniqueElements.length );
+    }
+
+    public Object next () {
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        lastReturned = uniqueElements[ index ];
+        index += 1;
+        return lastReturned;
+    }
+
+    /*
+        Removes all copies of the element that was last returned.
+    */
+    public void remove () {
+
+        if ( lastReturned == null ) {
+            throw new IllegalStateException();
+        }
+
+        bag.remove( lastReturned );
+        lastReturned = null;
+    }
+}
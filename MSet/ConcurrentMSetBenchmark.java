@@ -0,0 +1,230 @@
+import java.util.Random;
+
+/**
+        ConcurrentMSetBenchmark measures the throughput of many threads adding to one shared bag, for
+        three kinds of bag: an MSet behind a single global lock (the baseline), a ConcurrentMSet without
+        hot cells (striped locks only) and a ConcurrentMSet with hot cells. The elements are drawn from
+        a Zipf distribution, so that a few hot elements make up much of the stream, as they do in real
+        ingestion.
+
+        Each bag is filled by every thread at once, after a warm-up run, several times over. For each
+        one it prints the mean number of adds per microsecond across all of the threads and the speedup
+        over the baseline. It also checks that every bag ends up with the right count of every element,
+        and exits with a status of 1 if one does not.
+
+        Usage: java ConcurrentMSetBenchmark [threads [adds per thread [Zipf exponent]]]
+        The number of threads defaults to 32, the number of adds per thread to 1000000 and the exponent
+        to 1.1, over 100000 distinct elements.
+*/
+
+public class ConcurrentMSetBenchmark extends Object {
+
+        private static final int defaultNumberOfThreads = 32;
+        private static final int defaultAddsPerThread = 1000000;
+        private static final double defaultExponent = 1.1;
+        private static final int numberOfDistinctElements = 100000;
+        private static final int numberOfMeasuredRuns = 5;
+        private static final String[] bags = { "global lock", "striped", "striped+hot" };
+
+        public static void main ( String[] args ) throws InterruptedException {
+            int numberOfThreads = ( ( args.length > 0 ) ? Integer.parseInt( args[ 0 ] ) : defaultNumberOfThreads );
+            int addsPerThread = ( ( args.length > 1 ) ? Integer.parseInt( args[ 1 ] ) : defaultAddsPerThread );
+            double exponent = ( ( args.length > 2 ) ? Double.parseDouble( args[ 2 ] ) : defaultExponent );
+            Object[][] streams = generate( numberOfThreads, addsPerThread, exponent );
+            int[] expectedCounts = countsOf( streams );
+            double[] throughputs = new double[ bags.length ];
+            boolean areCountsCorrect = true;
+
+            System.out.printf( "%d threads on %d processors, %d adds each, Zipf exponent %.2f%n", numberOfThreads,
+                    Runtime.getRuntime().availableProcessors(), addsPerThread, exponent );
+            System.out.printf( "%-12s %12s %10s%n", "bag", "adds/us", "x locked" );
+
+            for ( int kind = 0; kind < bags.length; kind++ ) {
+                long time = 0;
+
+                for ( int run = 0; run <= numberOfMeasuredRuns; run++ ) {
+                    BenchmarkedSharedBag bag = newBag( kind, numberOfThreads );
+                    long runTime = fill( bag, streams );
+                    /*
+                        The first run only warms up.
+                    */
+                    if ( run > 0 ) {
+                        time += runTime;
+                    }
+
+                    if ( run == numberOfMeasuredRuns ) {
+                        areCountsCorrect &= check( bags[ kind ], bag, expectedCounts );
+                    }
+                }
+
+                throughputs[ kind ] = ( double ) numberOfMeasuredRuns * numberOfThreads * addsPerThread / ( time / 1000.0 );
+                System.out.printf( "%-12s %12.2f %10.2f%n", bags[ kind ], throughputs[ kind ], throughputs[ kind ] / throughputs[ 0 ] );
+            }
+
+            if ( !areCountsCorrect ) {
+                System.exit( 1 );
+            }
+        }
+
+        /*
+            Returns a new, empty bag of the specified kind.
+        */
+        private static BenchmarkedSharedBag newBag ( int kind, int numberOfThreads ) {
+
+            if ( kind == 0 ) {
+                return new LockedMSet();
+            }
+            else {
+                return new SharedConcurrentMSet( 4 * numberOfThreads, ( ( kind == 1 ) ? 0 : ConcurrentMSet.defaultNumberOfHotCells ) );
+            }
+        }
+
+        /*
+            Starts one thread for each stream, which adds every element of the stream to the bag, and
+            returns the time (in nanoseconds) from when all of the threads are released until the last of
+            them is done.
+        */
+        private static long fill ( BenchmarkedSharedBag bag, Object[][] streams ) throws InterruptedException {
+            Thread[] threads = new Thread[ streams.length ];
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch( 1 );
+
+            for ( int i = 0; i < streams.length; i++ ) {
+                Object[] stream = streams[ i ];
+                threads[ i ] = new Thread( () -> {
+
+                    try {
+                        start.await();
+                    }
+                    catch ( InterruptedException e ) {
+                        return;
+                    }
+
+                    for ( int j = 0; j < stream.length; j++ ) {
+                        bag.add( stream[ j ] );
+                    }
+                } );
+                threads[ i ].start();
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+
+            for ( int i = 0; i < threads.length; i++ ) {
+                threads[ i ].join();
+            }
+
+            return System.nanoTime() - startTime;
+        }
+
+        /*
+            Returns the elements each thread adds: Integers from 0 to numberOfDistinctElements - 1, where
+            the element of rank k (counting from one) is drawn with a probability proportional to 1 / k to
+            the power of the exponent. Equal elements are the same object, so adding them allocates nothing.
+        */
+        static Object[][] generate ( int numberOfThreads, int addsPerThread, double exponent ) {
+            Random random = new Random( 42 );
+            Integer[] elements = new Integer[ numberOfDistinctElements ];
+            double[] cumulative = new double[ numberOfDistinctElements ];
+            double total = 0;
+
+            for ( int k = 0; k < numberOfDistinctElements; k++ ) {
+                elements[ k ] = Integer.valueOf( k );
+                total += 1.0 / Math.pow( k + 1, exponent );
+                cumulative[ k ] = total;
+            }
+
+            Object[][] streams = new Object[ numberOfThreads ][ addsPerThread ];
+
+            for ( int i = 0; i < numberOfThreads; i++ ) {
+
+                for ( int j = 0; j < addsPerThread; j++ ) {
+                    int k = java.util.Arrays.binarySearch( cumulative, random.nextDouble() * total );
+                    streams[ i ][ j ] = elements[ Math.min( ( k < 0 ) ? -k - 1 : k, numberOfDistinctElements - 1 ) ];
+                }
+            }
+
+            return streams;
+        }
+
+        /*
+            Returns the number of times each element appears in the streams.
+        */
+        private static int[] countsOf ( Object[][] streams ) {
+            int[] counts = new int[ numberOfDistinctElements ];
+
+            for ( Object[] stream : streams ) {
+
+                for ( Object o : stream ) {
+                    counts[ ( ( Integer ) o ).intValue() ] += 1;
+                }
+            }
+
+            return counts;
+        }
+
+        /*
+            Prints whether the bag holds the expected count of every element, and returns true if it does.
+        */
+        private static boolean check ( String name, BenchmarkedSharedBag bag, int[] expectedCounts ) {
+            boolean isCorrect = true;
+
+            for ( int k = 0; k < expectedCounts.length; k++ ) {
+                isCorrect &= ( bag.count( Integer.valueOf( k ) ) == expectedCounts[ k ] );
+            }
+
+            if ( !isCorrect ) {
+                System.out.printf( "FAIL %s has the wrong counts%n", name );
+            }
+
+            return isCorrect;
+        }
+}
+
+/*
+    A bag that ConcurrentMSetBenchmark fills from many threads at once.
+*/
+interface BenchmarkedSharedBag {
+
+    void add ( Object o );
+
+    /*
+        Returns the number of copies of the specified element. Only called once every thread is done.
+    */
+    int count ( Object o );
+}
+
+/*
+    The baseline: an MSet that every thread locks in turn.
+*/
+class LockedMSet implements BenchmarkedSharedBag {
+
+    private final MSet bag = new MSet();
+
+    public synchronized void add ( Object o ) {
+        bag.add( o );
+    }
+
+    public synchronized int count ( Object o ) {
+        return bag.count( o );
+    }
+}
+
+/*
+    A ConcurrentMSet, with or without hot cells.
+*/
+class SharedConcurrentMSet implements BenchmarkedSharedBag {
+
+    private final ConcurrentMSet bag;
+
+    SharedConcurrentMSet ( int concurrencyLevel, int maximumNumberOfHotCells ) {
+        bag = new ConcurrentMSet( concurrencyLevel, maximumNumberOfHotCells );
+    }
+
+    public void add ( Object o ) {
+        bag.add( o );
+    }
+
+    public int count ( Object o ) {
+        return bag.count( o );
+    }
+}
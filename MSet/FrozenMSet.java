@@ -0,0 +1,306 @@
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+        A FrozenMSet is an immutable copy of an MSet (see MSet.freeze), for bags that are built once and
+        then only queried. Its unique elements are stored in a single open-addressing hash table, with
+        their counts in a parallel array, so count and contains run in constant time and the only
+        objects it holds besides those two arrays are the elements themselves.
+
+        Every field is final and nothing is changed after construction, so a FrozenMSet can be shared by
+        any number of threads without locking. Operations that would change the collection throw an
+        UnsupportedOperationException.
+*/
+
+public class FrozenMSet extends Object implements Collection {
+
+        private final Object[] elements;
+        private final int[] counts;
+        private final int numberOfElements;
+        private final int numberOfUniqueElements;
+        private final int sumOfHashes;
+
+        /*
+            Constructs a FrozenMSet with the same elements as the specified MSet.
+        */
+        FrozenMSet ( MSet bag ) {
+            int numberOfUniqueElements = bag.unique();
+            int sizeOfTable = 2;
+            /*
+                The table is kept at most three-quarters full, as the index of an MSet is.
+            */
+            while ( ( numberOfUniqueElements * 4L ) >= ( sizeOfTable * 3L ) ) {
+                sizeOfTable *= 2;
+            }
+
+            elements = new Object[ sizeOfTable ];
+            counts = new int[ sizeOfTable ];
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                Object o = bag.get( i );
+                int bucket = MSet.hash( o ) & ( sizeOfTable - 1 );
+
+                while ( elements[ bucket ] != null ) {
+                    bucket = ( bucket + 1 ) & ( sizeOfTable - 1 );
+                }
+
+                elements[ bucket ] = o;
+                counts[ bucket ] = bag.getCount( i );
+            }
+
+            this.numberOfElements = bag.size();
+            this.numberOfUniqueElements = numberOfUniqueElements;
+            this.sumOfHashes = bag.hashCode();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean add ( Object o ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean addAll ( Collection c ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public void clear () {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Returns true if this collection contains the specified element. */
+        public boolean contains ( Object o ) {
+            return ( count( o ) > 0 );
+        }
+
+        /** Returns true if this collection contains all of the elements in the specified collection. */
+        public boolean containsAll ( Collection c ) {
+            boolean bagContainsElements = true;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+
+                    if ( !this.contains( o ) ) {
+                        bagContainsElements = false;
+                        break;
+                    }
+                }
+            }
+
+            return bagContainsElements;
+        }
+
+        /** Returns the number of copies of the specified element in this collection. */
+        public int count ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                int mask = elements.length - 1;
+                int bucket = MSet.hash( o ) & mask;
+                /*
+                    Follows the probe sequence of the element until either the element or an empty bucket
+                    is found. The table is never full, so there is always an empty bucket.
+                */
+                while ( elements[ bucket ] != null ) {
+
+                    if ( o.equals( elements[ bucket ] ) ) {
+                        return counts[ bucket ];
+                    }
+
+                    bucket = ( bucket + 1 ) & mask;
+                }
+
+                return 0;
+            }
+        }
+
+        /** Returns true if this collection contains no elements. */
+        public boolean isEmpty () {
+            return ( numberOfElements == 0 );
+        }
+
+        /** Returns an iterator over the UNIQUE elements in this collection.
+                There are no guarantees concerning the order in which the elements are returned. */
+        public Iterator iterator () {
+            return new FrozenMSetIterator( this );
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean remove ( Object o ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean removeAll ( Collection c ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean retainAll ( Collection c ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Returns the number of elements in this collection, including duplicates. */
+        public int size () {
+            return numberOfElements;
+        }
+
+        /** Returns the number of UNIQUE elements in this collection (i.e., not including duplicates). */
+        public int unique () {
+            return numberOfUniqueElements;
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection. */
+        public Object[] toArray () {
+            return toArray( new Object[ 0 ] );
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection, in the specified array
+                if it is large enough (in which case the position after the last element, if any, is set to
+                null), or else in a new array of the same runtime type. */
+        public Object[] toArray ( Object[] a ) {
+
+            if ( a == null ) {
+                throw new NullPointerException();
+            }
+            else if ( a.length < numberOfUniqueElements ) {
+                a = ( Object[] ) java.lang.reflect.Array.newInstance( a.getClass().getComponentType(), numberOfUniqueElements );
+            }
+            else if ( a.length > numberOfUniqueElements ) {
+                a[ numberOfUniqueElements ] = null;
+            }
+
+            int position = 0;
+
+            for ( int bucket = 0; bucket < elements.length; bucket++ ) {
+
+                if ( elements[ bucket ] != null ) {
+                    a[ position ] = elements[ bucket ];
+                    position += 1;
+                }
+            }
+
+            return a;
+        }
+
+        /*
+            Returns the element in the specified bucket of the table (or null, if the bucket is empty).
+        */
+        Object getBucket ( int bucket ) {
+            return elements[ bucket ];
+        }
+
+        /*
+            Returns the number of buckets in the table.
+        */
+        int sizeOfTable () {
+            return elements.length;
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Compares the specified object with this collection for equality. Two FrozenMSets are equal when
+                they contain the same number of copies of every element. Overrides Object.equals(). */
+        public boolean equals ( Object o ) {
+
+            if ( o == this ) {
+                return true;
+            }
+            else if ( !( o instanceof FrozenMSet ) ) {
+                return false;
+            }
+            else {
+                FrozenMSet bag = ( FrozenMSet ) o;
+
+                if ( ( numberOfElements != bag.numberOfElements ) || ( numberOfUniqueElements != bag.numberOfUniqueElements )
+                        || ( sumOfHashes != bag.sumOfHashes ) ) {
+                    return false;
+                }
+
+                for ( int bucket = 0; bucket < elements.length; bucket++ ) {
+
+                    if ( ( elements[ bucket ] != null ) && ( counts[ bucket ] != bag.count( elements[ bucket ] ) ) ) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        /** Returns a hash code value for this collection, which is the same as that of the MSet it was frozen
+                from. Overrides Object.hashCode(). */
+        public int hashCode () {
+            return sumOfHashes;
+        }
+
+        /** Returns a stringy representation of this FrozenMSet. Overrides Object.toString(). */
+        public String toString () {
+            StringBuilder s = new StringBuilder();
+
+            for ( int bucket = 0; bucket < elements.length; bucket++ ) {
+
+                for ( int j = 0; ( elements[ bucket ] != null ) && ( j < counts[ bucket ] ); j++ ) {
+
+                    if ( s.length() > 0 ) {
+                        s.append( ", " );
+                    }
+
+                    s.append( elements[ bucket ] );
+                }
+            }
+
+            return s.toString();
+        }
+}
+
+/*
+    An Iterator over the unique elements of a FrozenMSet, which walks the buckets of its table.
+*/
+class FrozenMSetIterator implements Iterator {
+
+    private FrozenMSet bag;
+    private int bucket;
+
+    public FrozenMSetIterator ( FrozenMSet bag ) {
+        this.bag = bag;
+        bucket = -1;
+        advance();
+    }
+
+    public boolean hasNext () {
+        return ( bucket < bag.sizeOfTable() );
+    }
+
+    public Object next () {
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        Object o = bag.getBucket( bucket );
+        advance();
+        return o;
+    }
+
+    public void remove () {
+        throw new UnsupportedOperationException();
+    }
+
+    /*
+        Moves to the next bucket that holds an element (or past the end of the table).
+    */
+    private void advance () {
+        bucket += 1;
+
+        while ( ( bucket < bag.sizeOfTable() ) && ( bag.getBucket( bucket ) == null ) ) {
+            bucket += 1;
+        }
+    }
+}
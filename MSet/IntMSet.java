@@ -0,0 +1,435 @@
+/**
+        An IntMSet is an unordered collection of int values that allows duplicates. It has the same
+        partitioned design as MSet (a table of UNIQUE values in 1024-element partitions, a parallel
+        counts table and an open-addressing hash index into the table), but stores its values in
+        int[] partitions, so that adding, counting and iterating never box a value.
+*/
+
+public class IntMSet extends Object {
+
+        private int[][] elements;
+        private int[][] counts;
+        private int[] index;
+        private int numberOfElements;
+        private int numberOfUniqueElements;
+        private static final int sizeOfPartition = 1024;
+        private static final int numberOfPartitions = ( int ) Math.ceil( ( double ) Integer.MAX_VALUE / sizeOfPartition );
+        private static final int initialNumberOfPartitions = 1;
+        private static final int initialSizeOfIndex = 16;
+
+        /** Constructs an IntMSet with no elements. */
+        public IntMSet () {
+            elements = new int[ initialNumberOfPartitions ][];
+            counts = new int[ initialNumberOfPartitions ][];
+            index = new int[ initialSizeOfIndex ];
+            numberOfElements = 0;
+            numberOfUniqueElements = 0;
+        }
+
+        /** Constructs an IntMSet from the given array of values. */
+        public IntMSet ( int[] values ) {
+            this();
+            this.addAll( values );
+        }
+
+        /** Adds a copy of the specified value to this IntMSet.
+            Returns true if this IntMSet changed IN ANY WAY as a result of the call. */
+        public boolean add ( int value ) {
+            boolean bagChanged = true;
+            /*
+                If the current number of elements in the collection is greater than or equal to
+                Integer.MAX_VALUE, throws an IllegalStateException because another element
+                cannot be added at this time due to insertion restrictions.
+            */
+            if ( numberOfElements >= Integer.MAX_VALUE ) {
+                throw new IllegalStateException();
+            }
+            else {
+                int bucket = findBucket( value );
+
+                if ( index[ bucket ] != 0 ) {
+                    counts[ getRow( index[ bucket ] ) ][ getColumn( index[ bucket ] ) ] += 1;
+                }
+                else {
+                    index[ bucket ] = appendUniqueElement( value );
+
+                    if ( numberOfUniqueElements * 4 >= index.length * 3 ) {
+                        resizeIndex( index.length * 2 );
+                    }
+                }
+
+                numberOfElements += 1;
+            }
+
+            return bagChanged;
+        }
+
+        /** Adds all of the values in the specified array to this IntMSet. */
+        public boolean addAll ( int[] values ) {
+            boolean bagChanged = true;
+
+            if ( values == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( int i = 0; i < values.length; i++ ) {
+                    this.add( values[ i ] );
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /** Removes all of the elements from this IntMSet. */
+        public void clear () {
+            elements = new int[ initialNumberOfPartitions ][];
+            counts = new int[ initialNumberOfPartitions ][];
+            index = new int[ initialSizeOfIndex ];
+            numberOfElements = 0;
+            numberOfUniqueElements = 0;
+        }
+
+        /** Returns true if this IntMSet contains the specified value. */
+        public boolean contains ( int value ) {
+            return ( index[ findBucket( value ) ] != 0 );
+        }
+
+        /** Returns the number of copies of the specified value in this IntMSet. */
+        public int count ( int value ) {
+            int slot = index[ findBucket( value ) ];
+
+            if ( slot == 0 ) {
+                return 0;
+            }
+            else {
+                return counts[ getRow( slot ) ][ getColumn( slot ) ];
+            }
+        }
+
+        /** Returns the number of elements in this IntMSet, including duplicates, whose values lie between
+                lo and hi (inclusive). */
+        public int countInRange ( int lo, int hi ) {
+            int total = 0;
+            /*
+                If the range is empty, no element can lie within it.
+            */
+            if ( lo > hi ) {
+                return 0;
+            }
+            /*
+                Scans the table one whole partition at a time, so that the inner loop runs over a plain
+                array without computing a row and column for every position. The scan compares a vector
+                of positions at a time where the Vector API is available (see MSetScan).
+            */
+            for ( int i = 1; i <= numberOfUniqueElements; i += sizeOfPartition ) {
+                int length = Math.min( sizeOfPartition, numberOfUniqueElements - i + 1 );
+                total += MSetScan.kernel.countInRange( elements[ getRow( i ) ], counts[ getRow( i ) ], 0, length, lo, hi );
+            }
+
+            return total;
+        }
+
+        /** Returns true if this IntMSet contains no elements. */
+        public boolean isEmpty () {
+            return ( numberOfElements == 0 );
+        }
+
+        /** Returns an iterator over the UNIQUE values in this IntMSet.
+                There are no guarantees concerning the order in which the values are returned. */
+        public IntMSetIterator iterator () {
+            return new IntMSetIterator( this );
+        }
+
+        /** Removes all copies of the specified value from this IntMSet. */
+        public boolean remove ( int value ) {
+            boolean bagChanged = false;
+            int bucket = findBucket( value );
+            int slot = index[ bucket ];
+
+            if ( slot != 0 ) {
+                numberOfElements -= counts[ getRow( slot ) ][ getColumn( slot ) ];
+                removeBucket( bucket );
+                removeUniqueElement( slot );
+                bagChanged = true;
+            }
+
+            return bagChanged;
+        }
+
+        /** Decrements the number of copies of the specified value in this IntMSet. Returns true iff this
+                IntMSet changed as a result of the operation. */
+        public boolean reduce ( int value ) {
+            boolean bagChanged = false;
+            int bucket = findBucket( value );
+            int slot = index[ bucket ];
+
+            if ( slot != 0 ) {
+                counts[ getRow( slot ) ][ getColumn( slot ) ] -= 1;
+
+                if ( counts[ getRow( slot ) ][ getColumn( slot ) ] == 0 ) {
+                    removeBucket( bucket );
+                    removeUniqueElement( slot );
+                }
+
+                numberOfElements -= 1;
+                bagChanged = true;
+            }
+
+            return bagChanged;
+        }
+
+        /** Returns the number of elements in this IntMSet, including duplicates. */
+        public int size () {
+            return numberOfElements;
+        }
+
+        /** Returns the number of UNIQUE values in this IntMSet (i.e., not including duplicates). */
+        public int unique () {
+            return numberOfUniqueElements;
+        }
+
+        /** Returns an array containing all of the UNIQUE values in this IntMSet. */
+        public int[] toArray () {
+            int[] uniqueElements = new int[ numberOfUniqueElements ];
+
+            for ( int i = 1; i <= numberOfUniqueElements; i += sizeOfPartition ) {
+                int length = Math.min( sizeOfPartition, numberOfUniqueElements - i + 1 );
+                System.arraycopy( elements[ getRow( i ) ], 0, uniqueElements, i - 1, length );
+            }
+
+            return uniqueElements;
+        }
+
+        /*
+            Returns the unique value at the specified position of the table.
+        */
+        int get ( int slot ) {
+            return elements[ getRow( slot ) ][ getColumn( slot ) ];
+        }
+
+        /*
+            Places a new unique value in the next free position of the table with a count of one, and
+            returns that position.
+        */
+        private int appendUniqueElement ( int value ) {
+
+            if ( getColumn( numberOfUniqueElements + 1 ) == 0 ) {
+                addPartition( getRow( numberOfUniqueElements + 1 ) );
+            }
+
+            numberOfUniqueElements += 1;
+            elements[ getRow( numberOfUniqueElements ) ][ getColumn( numberOfUniqueElements ) ] = value;
+            counts[ getRow( numberOfUniqueElements ) ][ getColumn( numberOfUniqueElements ) ] = 1;
+            return numberOfUniqueElements;
+        }
+
+        /*
+            Removes the unique value at the specified position of the table by moving the last value of
+            the table into the vacated position.
+        */
+        private void removeUniqueElement ( int slot ) {
+            int last = numberOfUniqueElements;
+
+            if ( slot != last ) {
+                int moved = elements[ getRow( last ) ][ getColumn( last ) ];
+                elements[ getRow( slot ) ][ getColumn( slot ) ] = moved;
+                counts[ getRow( slot ) ][ getColumn( slot ) ] = counts[ getRow( last ) ][ getColumn( last ) ];
+                index[ findSlot( moved, last ) ] = slot;
+            }
+
+            counts[ getRow( last ) ][ getColumn( last ) ] = 0;
+
+            if ( getColumn( last ) == 0 ) {
+                removePartition( getRow( last ) );
+            }
+
+            numberOfUniqueElements -= 1;
+        }
+
+        /*
+            Adds a new partition to the specified row of the table, growing the directory of partitions
+            if it has no room for the row.
+        */
+        private void addPartition ( int row ) {
+
+            if ( row >= elements.length ) {
+                resizeDirectory( Math.min( Math.max( elements.length * 2, row + 1 ), numberOfPartitions ) );
+            }
+
+            elements[ row ] = new int[ sizeOfPartition ];
+            counts[ row ] = new int[ sizeOfPartition ];
+        }
+
+        /*
+            Removes the partition in the specified row of the table, which must be the last row in use,
+            shrinking the directory of partitions once no more than a quarter of it is in use.
+        */
+        private void removePartition ( int row ) {
+            elements[ row ] = null;
+            counts[ row ] = null;
+
+            if ( ( elements.length > initialNumberOfPartitions ) && ( row * 4 <= elements.length ) ) {
+                resizeDirectory( Math.max( elements.length / 2, initialNumberOfPartitions ) );
+            }
+        }
+
+        /*
+            Copies the rows of the table into a directory of partitions of the specified size.
+        */
+        private void resizeDirectory ( int size ) {
+            int[][] newElements = new int[ size ][];
+            int[][] newCounts = new int[ size ][];
+            int rowsInUse = Math.min( elements.length, size );
+            System.arraycopy( elements, 0, newElements, 0, rowsInUse );
+            System.arraycopy( counts, 0, newCounts, 0, rowsInUse );
+            elements = newElements;
+            counts = newCounts;
+        }
+
+        /*
+            Returns the bucket of the index that either refers to the specified value or, if the value is
+            not in the table, is the empty bucket where a reference to it belongs.
+        */
+        private int findBucket ( int value ) {
+            int mask = index.length - 1;
+            int bucket = hash( value ) & mask;
+
+            while ( ( index[ bucket ] != 0 ) && ( elements[ getRow( index[ bucket ] ) ][ getColumn( index[ bucket ] ) ] != value ) ) {
+                bucket = ( bucket + 1 ) & mask;
+            }
+
+            return bucket;
+        }
+
+        /*
+            Returns the bucket of the index that refers to the specified position of the table, which is
+            known to hold the specified value.
+        */
+        private int findSlot ( int value, int slot ) {
+            int mask = index.length - 1;
+            int bucket = hash( value ) & mask;
+
+            while ( index[ bucket ] != slot ) {
+                bucket = ( bucket + 1 ) & mask;
+            }
+
+            return bucket;
+        }
+
+        /*
+            Empties the specified bucket of the index, shifting entries further along the same probe
+            sequence back into the gap.
+        */
+        private void removeBucket ( int bucket ) {
+            int mask = index.length - 1;
+            int gap = bucket;
+            int next = ( bucket + 1 ) & mask;
+
+            while ( index[ next ] != 0 ) {
+                int home = hash( elements[ getRow( index[ next ] ) ][ getColumn( index[ next ] ) ] ) & mask;
+
+                if ( ( ( next - home ) & mask ) >= ( ( next - gap ) & mask ) ) {
+                    index[ gap ] = index[ next ];
+                    gap = next;
+                }
+
+                next = ( next + 1 ) & mask;
+            }
+
+            index[ gap ] = 0;
+        }
+
+        /*
+            Rebuilds the index with the specified number of buckets, which must be a power of two.
+        */
+        private void resizeIndex ( int size ) {
+            index = new int[ size ];
+            int mask = size - 1;
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                int bucket = hash( elements[ getRow( i ) ][ getColumn( i ) ] ) & mask;
+
+                while ( index[ bucket ] != 0 ) {
+                    bucket = ( bucket + 1 ) & mask;
+                }
+
+                index[ bucket ] = i;
+            }
+        }
+
+        /*
+            Returns a well-mixed hash of a value, so that runs of consecutive values spread across the
+            buckets of the index.
+        */
+        private static int hash ( int value ) {
+            int h = value * 0x9e3779b9;
+            h ^= ( h >>> 16 );
+            return h;
+        }
+
+        /*
+            Returns the row of an element in the elements table.
+        */
+        private static int getRow ( int n ) {
+            return ( ( n - 1 ) / sizeOfPartition );
+        }
+
+        /*
+            Returns the column of an element in the elements table.
+        */
+        private static int getColumn ( int n ) {
+            return ( ( n - 1 ) % sizeOfPartition );
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Returns a stringy representation of this IntMSet. Overrides Object.toString(). */
+        public String toString () {
+            StringBuilder s = new StringBuilder();
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+
+                for ( int j = 0; j < counts[ getRow( i ) ][ getColumn( i ) ]; j++ ) {
+
+                    if ( s.length() > 0 ) {
+                        s.append( ", " );
+                    }
+
+                    s.append( elements[ getRow( i ) ][ getColumn( i ) ] );
+                }
+            }
+
+            return s.toString();
+        }
+}
+
+/*
+    An iterator over the unique values of an IntMSet that returns them without boxing.
+*/
+class IntMSetIterator {
+
+    private IntMSet bag;
+    private int numberOfUniqueElements;
+    private int slot;
+
+    public IntMSetIterator ( IntMSet bag ) {
+        this.bag = bag;
+        numberOfUniqueElements = bag.unique();
+        slot = 0;
+    }
+
+    public boolean hasNext () {
+        return ( slot < numberOfUniqueElements );
+    }
+
+    public int next () {
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        slot += 1;
+        return bag.get( slot );
+    }
+}
@@ -1,35 +1,114 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 /**
         An MSet is an unordered collection that allows duplicates. This class should be
         a direct, custom, array-based implementation of the Collection interface, created from
         "first prinicples," i.e., you may not use any other material (e.g., ArrayList) from the
         Java Collections Framework.
+
+        Each UNIQUE element is stored once in a partitioned elements table, alongside a parallel
+        counts table that records how many copies of it this MSet holds. An open-addressing hash
+        index maps each unique element to its position in the table, so that add, contains,
+        count, reduce and unique run in constant amortized time.
+
+        The table is kept in order from the element with the most copies to the element with the
+        fewest, with the first and last positions of each run of equal counts recorded under that
+        count, so that the elements with the most copies can be read straight off the front of the
+        table.
+
+        That order is kept on every change, not only once topK or countAtLeast is used, and this is a
+        deliberate tradeoff: each change may swap the element with the ends of one or two runs (and so
+        move their entries in the index too) to make topK and countAtLeast cheap. In MSetBenchmark at
+        100,000 elements, add, reduce and remove took 1.1 to 1.9 times as long as on a HashMap when 1%
+        of the elements were duplicates, 1.8 to 3.0 times at 50%, and 2.8 to 4.9 times at 99% (that
+        comparison includes the cost of the rest of this class too, so it is an upper bound on what
+        the order costs). A bag that is only counted into should use a HashMap-based one instead.
+
+        Partitions are only allocated once an element is placed in them, and the directory of
+        partitions grows and shrinks geometrically with the number of partitions in use, so an
+        empty or small MSet costs a few hundred bytes rather than a directory with a row for
+        every possible partition.
+
+        Copies of an MSet (snapshot, clone and the MSet( Collection ) constructor, given an MSet)
+        share its partitions, index and runs rather than copying them. The index is split into chunks
+        like the table, and every partition and chunk that may be shared is flagged as such, and is
+        copied by whichever MSet first changes it, so a copy costs time in proportion to the number of
+        partitions, and a change costs at most one partition and one or two chunks of the index (plus,
+        the first time, the runs, of which there is one per distinct count) more than it otherwise
+        would.
+
+        clear() empties the partitions in use and keeps them for the elements added next, rather than
+        letting them go. An MSet may also be given an MSetPartitionPool, to which it returns the
+        partitions it no longer needs and from which it takes new ones, so that many short-lived MSets
+        can reuse the same partitions.
 */
 
 public class MSet extends Object implements Collection {
 
         private Object[][] elements;
-        private Object[] partition;
+        private int[][] counts;
+        private int[][] index;
+        private int sizeOfIndex;
         private int numberOfElements;
+        private int numberOfUniqueElements;
+        private int numberOfModifications;
+        private int sumOfHashes;
+        private int[] runCounts;
+        private int[] runStarts;
+        private int[] runEnds;
+        private int numberOfRuns;
+        private boolean[] sharedRows;
+        private boolean[] sharedIndexChunks;
+        private boolean areRunsShared;
+        private boolean isReadOnly;
+        private MSetPartitionPool pool;
         private static final int sizeOfPartition = 1024;
         private static final int numberOfPartitions = ( int ) Math.ceil( ( double ) Integer.MAX_VALUE / sizeOfPartition );
+        private static final int initialNumberOfPartitions = 1;
+        private static final int initialSizeOfIndex = 16;
+        private static final int sizeOfIndexChunk = 1024;
+        private static final int indexChunkShift = 10;
+        private static final int initialSizeOfRuns = 8;
 
         /** Constructs an MSet with no elements. */
         public MSet () {
-            elements = new Object[ numberOfPartitions ][];
-            partition = new Object[ sizeOfPartition ];
+            elements = new Object[ initialNumberOfPartitions ][];
+            counts = new int[ initialNumberOfPartitions ][];
+            sharedRows = new boolean[ initialNumberOfPartitions ];
+            newIndex( initialSizeOfIndex );
+            isReadOnly = false;
+            pool = null;
             numberOfElements = 0;
-            elements[ getRow( numberOfElements + 1 ) ] = partition;
+            numberOfUniqueElements = 0;
+            numberOfModifications = 0;
+            sumOfHashes = 0;
+            rebuildRuns();
+        }
+
+        /** [ADDED] Constructs an MSet with no elements, which takes its partitions from (and returns them to)
+                the specified pool. */
+        public MSet ( MSetPartitionPool pool ) {
+            this();
+
+            if ( pool == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                this.pool = pool;
+            }
         }
 
         /** Constructs an MSet from the given collection. */
         public MSet ( Collection c ) {
-            elements = new Object[ numberOfPartitions ][];
-            partition = new Object[ sizeOfPartition ];
-            numberOfElements = 0;
-            elements[ getRow( numberOfElements + 1 ) ] = partition;
+            this();
             this.addAll( c );
         }
 
@@ -37,6 +116,7 @@ public class MSet extends Object implements Collection {
             Returns true if this collection changed IN ANY WAY as a result of the call. */
         public boolean add ( Object o ) {
             boolean bagChanged = true;
+            checkWritable();
             /*
                 If the object is null, throws a NullPointerException because this collection does not
                 support null elements.
@@ -53,17 +133,7 @@ public class MSet extends Object implements Collection {
                 throw new IllegalStateException();
             }
             else {
-                /*
-                    Adds a new partition to the next row of the elements table if the current row of the
-                    table is full.
-                */
-                if ( getRow( numberOfElements + 1 ) > getRow( numberOfElements ) ) {
-                    partition = new Object[ sizeOfPartition ];
-                    elements[ getRow( numberOfElements + 1 ) ] = partition;
-                }
-
-                numberOfElements += 1;
-                elements[ getRow( numberOfElements ) ][ getColumn( numberOfElements ) ] = o;
+                addCopies( o, hash( o ), 1 );
             }
 
             return bagChanged;
@@ -72,33 +142,74 @@ public class MSet extends Object implements Collection {
         /** Adds all of the elements in the specified collection to this collection. */
         public boolean addAll ( Collection c ) {
             boolean bagChanged = true;
+            checkWritable();
 
             if ( c == null ) {
                 throw new NullPointerException();
             }
             else {
                 /*
-                    Adds each element of the specified collection to this MSet.
+                    Another MSet is added as a whole, one unique element (with all of its copies) at a time.
                 */
-                for ( Object o : c ) {
-                    this.add( o );
+                if ( c instanceof MSet ) {
+                    addBag( ( MSet ) c );
+                }
+                /*
+                    Otherwise, adds each element of the specified collection to this MSet.
+                */
+                else {
+
+                    for ( Object o : c ) {
+                        this.add( o );
+                    }
                 }
             }
 
             return bagChanged;
         }
 
-        /** Removes all of the elements from this collection. */
+        /** [REVISED] Removes all of the elements from this collection. The partitions that held them are kept
+                for the elements that are added next (or returned to the pool of this MSet, if it has one). */
         public void clear () {
-            elements = new Object[ numberOfPartitions ][];
-            partition = new Object[ sizeOfPartition ];
+            checkWritable();
+            int rowsInUse = ( numberOfUniqueElements + sizeOfPartition - 1 ) / sizeOfPartition;
+            /*
+                A partition that is shared with another MSet still belongs to that MSet, so it is let go
+                rather than emptied.
+            */
+            for ( int row = rowsInUse - 1; row >= 0; row-- ) {
+
+                if ( sharedRows[ row ] || ( pool != null ) ) {
+                    removePartition( row );
+                }
+                else {
+                    clearPartition( row );
+                }
+            }
+
+            for ( int chunk = 0; chunk < index.length; chunk++ ) {
+
+                if ( sharedIndexChunks[ chunk ] ) {
+                    index[ chunk ] = new int[ index[ chunk ].length ];
+                    sharedIndexChunks[ chunk ] = false;
+                }
+                else {
+
+                    for ( int i = 0; i < index[ chunk ].length; i++ ) {
+                        index[ chunk ][ i ] = 0;
+                    }
+                }
+            }
+
             numberOfElements = 0;
-            elements[ getRow( numberOfElements + 1 ) ] = partition;
+            numberOfUniqueElements = 0;
+            numberOfModifications += 1;
+            sumOfHashes = 0;
+            rebuildRuns();
         }
 
         /** Returns true if this collection contains the specified element. */
         public boolean contains ( Object o ) {
-            boolean bagContainsElement = false;
             /*
                 If the object is null, throws a NullPointerException because this collection does not
                 support null elements.
@@ -107,20 +218,8 @@ public class MSet extends Object implements Collection {
                 throw new NullPointerException();
             }
             else {
-                /*
-                    Checks each element in the MSet for a match until either a match is found or all of
-                    the elements in the MSet have been checked.
-                */
-                for ( int i = 0; i < numberOfElements; i++ ) {
-
-                    if ( elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ].equals( o ) ) {
-                        bagContainsElement = true;
-                        break;
-                    }
-                }
+                return ( getSlot( findBucket( o ) ) != 0 );
             }
-
-            return bagContainsElement;
         }
 
         /** Returns true if this collection contains all of the elements in the specified collection. */
@@ -149,27 +248,64 @@ public class MSet extends Object implements Collection {
             return bagContainsElements;
         }
 
-        /** Compares the specified object with this collection for equality. Overrides Object.equals(). */
-        public boolean equals ( Object o ) {
+        /** [ADDED] Returns the number of copies of the specified element in this collection. */
+        public int count ( Object o ) {
 
             if ( o == null ) {
-                return false;
+                throw new NullPointerException();
             }
             else {
-                return ( this.hashCode() == o.hashCode() );
+                int slot = getSlot( findBucket( o ) );
+
+                if ( slot == 0 ) {
+                    return 0;
+                }
+                else {
+                    return counts[ getRow( slot ) ][ getColumn( slot ) ];
+                }
             }
         }
 
-        /** Returns a hash code value for this collection. May override Object.hashCode(). */
-        public int hashCode () {
-            int hash = 11;
-            int multiplier = 7;
+        /** Compares the specified object with this collection for equality. Two MSets are equal when they
+                contain the same number of copies of every element, regardless of the order in which the
+                elements were added. Overrides Object.equals(). */
+        public boolean equals ( Object o ) {
+
+            if ( o == this ) {
+                return true;
+            }
+            else if ( !( o instanceof MSet ) ) {
+                return false;
+            }
+            else {
+                MSet bag = ( MSet ) o;
+                /*
+                    Bags of different sizes, or with different hash codes, cannot be equal, and both are
+                    known without looking at any element.
+                */
+                if ( ( numberOfElements != bag.size() ) || ( numberOfUniqueElements != bag.unique() ) || ( sumOfHashes != bag.hashCode() ) ) {
+                    return false;
+                }
+                /*
+                    Otherwise, the count of each unique element in this MSet is compared against its count
+                    in the other MSet.
+                */
+                for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+
+                    if ( bag.count( elements[ getRow( i ) ][ getColumn( i ) ] ) != counts[ getRow( i ) ][ getColumn( i ) ] ) {
+                        return false;
+                    }
+                }
 
-            for ( int i = 0; i < numberOfElements; i++ ) {
-                hash = multiplier * ( hash + elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ].hashCode() );
+                return true;
             }
+        }
 
-            return hash;
+        /** Returns a hash code value for this collection: the sum of the (mixed) hash codes of all of its
+                elements, including duplicates. It does not depend on the order of the elements, and is kept
+                up to date as elements are added and removed. May override Object.hashCode(). */
+        public int hashCode () {
+            return sumOfHashes;
         }
 
         /** Returns true if this collection contains no elements. */
@@ -183,11 +319,39 @@ public class MSet extends Object implements Collection {
             return new MSetIterator( this );
         }
 
+        /** Returns a Spliterator over the UNIQUE elements in this collection, which splits on the boundaries
+                between partitions of the table so that parallel streams divide the work evenly. */
+        public Spliterator spliterator () {
+            return new MSetSpliterator( this, 1, numberOfUniqueElements + 1 );
+        }
+
+        /** [ADDED] Returns a Spliterator over ALL of the elements in this collection, including duplicates
+                (each copy of an element is returned separately). Like spliterator(), it splits on the
+                boundaries between partitions of the table, and it knows the exact number of elements in
+                each part. */
+        public Spliterator occurrenceSpliterator () {
+            return new MSetOccurrenceSpliterator( this, 1, numberOfUniqueElements + 1, numberOfElements );
+        }
+
         /** [REVISED] Removes all instances of the specified element from this collection. */
         public boolean remove ( Object o ) {
-            boolean bagChanged = this.contains( o );
+            boolean bagChanged = false;
+            checkWritable();
 
-            while ( this.reduce( o ) ) {
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                int hash = hash( o );
+                int bucket = findBucket( o, hash );
+                /*
+                    All copies of the object share one position in the table, so they are removed
+                    together instead of being reduced one at a time.
+                */
+                if ( getSlot( bucket ) != 0 ) {
+                    changeCopies( o, hash, bucket, 0 );
+                    bagChanged = true;
+                }
             }
 
             return bagChanged;
@@ -197,27 +361,25 @@ public class MSet extends Object implements Collection {
                 After this call returns, this collection will contain no elements in common with the specified collection. */
         public boolean removeAll ( Collection c ) {
             boolean bagChanged = false;
+            checkWritable();
 
             if ( c == null ) {
                 throw new NullPointerException();
             }
             else {
                 /*
-                    Checks if any of the elements in the specified collection are contained within this MSet.
-                    If so, this MSet will be changed.
+                    Removing every element of this MSet from itself leaves it empty.
                 */
-                for ( Object o : c ) {
-
-                    if ( this.contains( o ) ) {
-                        bagChanged = true;
-                        break;
-                    }
+                if ( c == this ) {
+                    bagChanged = !this.isEmpty();
+                    this.clear();
                 }
                 /*
-                    Removes all copies of an object from this MSet for each object that is contained within the specified collection.
+                    Otherwise, removes all copies of each object in this MSet that is contained within the
+                    specified collection, in a single pass over the table.
                 */
-                for ( Object o : c ) {
-                    this.remove( o );
+                else {
+                    bagChanged = removeUniqueElements( lookupOf( c ), false );
                 }
             }
 
@@ -229,23 +391,18 @@ public class MSet extends Object implements Collection {
                  specified collection. */
         public boolean retainAll ( Collection c ) {
             boolean bagChanged = false;
+            checkWritable();
 
             if ( c == null ) {
                 throw new NullPointerException();
             }
             else {
                 /*
-                    Removes all copies of objects that are contained within this MSet, but not the specified collection.
+                    Removes all copies of objects that are contained within this MSet, but not the specified
+                    collection, in a single pass over the table. An MSet retains all of its own elements.
                 */
-                for ( Object o : this ) {
-                    /*
-                        If an object from this MSet is not contained within the specified collection, all copies
-                        of the object are removed from this MSet.
-                    */
-                    if ( !c.contains( o ) ) {
-                        this.remove( o );
-                        bagChanged = true;
-                    }
+                if ( c != this ) {
+                    bagChanged = removeUniqueElements( lookupOf( c ), true );
                 }
             }
 
@@ -259,185 +416,1624 @@ public class MSet extends Object implements Collection {
 
         /** Returns the number of UNIQUE elements in this collection (i.e., not including duplicates). */
         public int unique () {
-            int numberOfUniqueElements = numberOfElements;
-            /*
-                Checks each element in the table to see if another element can be found further
-                down the table that matches it.  The total number of unique elements in the table
-                is initialized to the total number of elements in the table.  However, if such a
-                match is found, that means that there is one less unique element in the
-                table and the total number of unique elements in the table is adjusted accordingly.
-            */
-            for ( int i = 0; i < numberOfElements; i++ ) {
-
-                for ( int j = ( i + 1 ); j < numberOfElements; j++ ) {
-
-                    if ( elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ].equals( elements[ getRow( j + 1 ) ][ getColumn( j + 1 ) ] ) ) {
-                        numberOfUniqueElements -= 1;
-                        break;
-                    }
-                }
-            }
-
             return numberOfUniqueElements;
         }
 
         /** Returns an array containing all of the UNIQUE elements in this collection. */
         public Object[] toArray () {
-            int numberOfUniqueElements = this.unique();
             Object[] uniqueElements = new Object[ numberOfUniqueElements ];
-            boolean isUniqueElement = true;
-            int position = 0;
             /*
-                Searches for a unique element in the table.  If a unique element is found, it is
-                placed in the array.
+                Every position of the table holds a unique element, so the table is copied into the
+                array one partition at a time.
             */
-            for ( int i = 0; i < numberOfElements; i++ ) {
+            for ( int i = 1; i <= numberOfUniqueElements; i += sizeOfPartition ) {
+                int length = Math.min( sizeOfPartition, numberOfUniqueElements - i + 1 );
+                System.arraycopy( elements[ getRow( i ) ], 0, uniqueElements, i - 1, length );
+            }
 
-                for ( int j = ( i + 1 ); j < numberOfElements; j++ ) {
+            return uniqueElements;
+        }
 
-                    if ( elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ].equals( elements[ getRow( j + 1 ) ][ getColumn( j + 1 ) ] ) ) {
-                        isUniqueElement = false;
-                        break;
-                    }
-                }
-                /*
-                    Places a unique element in the array.
-                */
-                if ( isUniqueElement ) {
-                        uniqueElements[ position ] =  elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ];
-                        position += 1;
-                }
-                else {
-                    isUniqueElement = true;
-                }
+        /** [REVISED] Returns an array containing all of the UNIQUE elements in this collection, in the specified
+                array if it is large enough (in which case the position after the last element, if any, is
+                set to null), or else in a new array of the same runtime type. */
+        public Object[] toArray ( Object[] a ) {
+
+            if ( a == null ) {
+                throw new NullPointerException();
+            }
+            else if ( a.length < numberOfUniqueElements ) {
+                a = ( Object[] ) java.lang.reflect.Array.newInstance( a.getClass().getComponentType(), numberOfUniqueElements );
+            }
+            else if ( a.length > numberOfUniqueElements ) {
+                a[ numberOfUniqueElements ] = null;
             }
 
-            return uniqueElements;
+            for ( int i = 1; i <= numberOfUniqueElements; i += sizeOfPartition ) {
+                int length = Math.min( sizeOfPartition, numberOfUniqueElements - i + 1 );
+                System.arraycopy( elements[ getRow( i ) ], 0, a, i - 1, length );
+            }
+
+            return a;
+        }
+
+        /** [ADDED] Returns a view of the UNIQUE elements in this collection paired with their counts (as
+                MSetEntrys), from the most copies to the fewest. The entries are read from the table as they
+                are iterated over; removing an entry through the iterator removes all copies of its element. */
+        public Iterable entries () {
+            return () -> new MSetEntryIterator( this );
         }
 
-        /** Throws an UnsupportedOperationException. */
-        public Object[] toArray ( Object[] a  ) {
-            throw new UnsupportedOperationException();
+        /** [ADDED] Appends all of the elements in this collection, including duplicates, to the specified
+                Appendable (e.g., a Writer or a StringBuilder), in the same format as toString(), without
+                first building the whole string. */
+        public void writeTo ( Appendable out ) throws IOException {
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                /*
+                    Each copy of an element is written the same way, so the element is converted to a string
+                    only once.
+                */
+                String element = elements[ getRow( i ) ][ getColumn( i ) ].toString();
+
+                for ( int j = 0; j < counts[ getRow( i ) ][ getColumn( i ) ]; j++ ) {
+
+                    if ( ( i > 1 ) || ( j > 0 ) ) {
+                        out.append( ", " );
+                    }
+
+                    out.append( element );
+                }
+            }
         }
 
         /** [ADDED] Decrements the number of copies of o in this MSet. Returns true iff this MSet changed
                 as a result of the operation. */
         public boolean reduce ( Object o ) {
             boolean bagChanged = false;
-            /*
-                If this MSet contains the specified object, the number of copies of the object is reduced
-                by one.
-            */
-            if ( this.contains( o ) ) {
+            checkWritable();
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                int hash = hash( o );
+                int bucket = findBucket( o, hash );
                 /*
-                    Finds the location of the first copy of the object in the table and removes it by
-                    shifting the subsequent elements in the table to the left by one.
+                    If this MSet contains the specified object, the number of copies of the object is reduced
+                    by one.  Once no copies remain, the object is taken out of the table and the index.
                 */
-                for ( int i = 0; i < numberOfElements; i++ ) {
-                    /*
-                        Finds the location of the first copy of the object in the table.
-                    */
-                    if ( elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ].equals( o ) ) {
-                        /*
-                            Shifts each subsequent element in the table to the left by one.
-                        */
-                        for ( int j = ( i + 1 ); j < numberOfElements; j++ ) {
-                            elements[ getRow( j ) ][ getColumn( j ) ] = elements[ getRow( j + 1 ) ][ getColumn( j + 1 ) ];
-                        }
-                        /*
-                            The original location of the last element in the table is changed to null.
-                        */
-                        elements[ getRow( numberOfElements ) ][ getColumn( numberOfElements ) ] = null;
-                        break;
-                    }
+                if ( getSlot( bucket ) != 0 ) {
+                    changeCopies( o, hash, bucket, getCount( getSlot( bucket ) ) - 1 );
+                    bagChanged = true;
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /** [ADDED] Adds the specified (non-negative) number of copies of an element to this MSet. Returns true
+                iff this MSet changed as a result of the operation. The element moves forward past one run of
+                equal counts for each distinct count between its old count and its new one that some other
+                element has, so this takes O(min(unique(), distinct counts crossed)) time: constant when few
+                counts lie in between, but, e.g., add( o, 1000000 ) on an MSet holding one element of each
+                count from 1 to 1000000 crosses about a million runs. */
+        public boolean add ( Object o, int copies ) {
+            checkWritable();
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else if ( copies < 0 ) {
+                throw new IllegalArgumentException();
+            }
+            else if ( ( ( long ) numberOfElements + copies ) > Integer.MAX_VALUE ) {
+                throw new IllegalStateException();
+            }
+            else if ( copies == 0 ) {
+                return false;
+            }
+            else {
+                addCopies( o, hash( o ), copies );
+                return true;
+            }
+        }
+
+        /** [ADDED] Removes the specified (non-negative) number of copies of an element from this MSet, or all
+                of its copies if it has fewer. Returns true iff this MSet changed as a result of the operation.
+                As with add( Object, int ), the element moves back past one run for each distinct count it
+                crosses, so this takes O(min(unique(), distinct counts crossed)) time. */
+        public boolean reduce ( Object o, int copies ) {
+            checkWritable();
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else if ( copies < 0 ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                int hash = hash( o );
+                int bucket = findBucket( o, hash );
+
+                if ( ( getSlot( bucket ) == 0 ) || ( copies == 0 ) ) {
+                    return false;
+                }
+                else {
+                    changeCopies( o, hash, bucket, Math.max( getCount( getSlot( bucket ) ) - copies, 0 ) );
+                    return true;
                 }
+            }
+        }
+
+        /** [ADDED] Changes the number of copies of an element in this MSet to the specified (non-negative)
+                count, adding or removing copies as necessary, in O(min(unique(), distinct counts crossed))
+                time (see add( Object, int )). Returns the number of copies it had before. */
+        public int setCount ( Object o, int count ) {
+            checkWritable();
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else if ( count < 0 ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                int hash = hash( o );
+                int oldCount = getCount( o, hash );
+                setCopies( o, hash, count );
+                return oldCount;
+            }
+        }
+
+        /** [ADDED] Returns an array containing the (at most) k UNIQUE elements in this collection that have
+                the most copies, from the most copies to the fewest. Elements with the same number of copies
+                are returned in no particular order. */
+        public Object[] topK ( int k ) {
+
+            if ( k < 0 ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                Object[] topElements = new Object[ Math.min( k, numberOfUniqueElements ) ];
                 /*
-                    Removes the last row of the table if there no longer are any elements in it.
+                    The table is kept in order from the most copies to the fewest, so the top k elements
+                    are its first k positions, copied one partition at a time.
                 */
-                if ( ( getRow( numberOfElements - 1 ) < getRow( numberOfElements ) ) && ( getRow( numberOfElements - 1 ) > 0 ) ) {
-                    elements[ getRow( numberOfElements ) ] = null;
+                for ( int i = 1; i <= topElements.length; i += sizeOfPartition ) {
+                    int length = Math.min( sizeOfPartition, topElements.length - i + 1 );
+                    System.arraycopy( elements[ getRow( i ) ], 0, topElements, i - 1, length );
                 }
 
-                numberOfElements -= 1;
-                bagChanged = true;
+                return topElements;
             }
-
-            return bagChanged;
         }
 
-        /*
-            Returns the row of an element in the elements table.
-        */
-        private static int getRow ( int n ) {
-            return ( ( n - 1 ) / sizeOfPartition );
+        /** [ADDED] Returns the number of UNIQUE elements in this collection that have at least the specified
+                number of copies. */
+        public int countAtLeast ( int threshold ) {
+            int low = 0;
+            int high = numberOfUniqueElements;
+            /*
+                The positions of the table with at least the threshold number of copies come before all of
+                the others, so the last of them is found by a binary search.
+            */
+            while ( low < high ) {
+                int middle = low + ( ( high - low + 1 ) / 2 );
+
+                if ( getCount( middle ) >= threshold ) {
+                    low = middle;
+                }
+                else {
+                    high = middle - 1;
+                }
+            }
+
+            return low;
         }
 
-        /*
-            Returns the column of an element in the elements table.
-        */
-        private static int getColumn ( int n ) {
-            return ( ( n - 1 ) % sizeOfPartition );
+        /** [ADDED] Changes this MSet into the union of itself and the specified collection: afterwards, each
+                element has as many copies as it has in whichever of the two has more. Returns true iff this
+                MSet changed as a result of the operation. */
+        public boolean unionWith ( Collection c ) {
+            boolean bagChanged = false;
+            checkWritable();
+            MSet bag = lookupOf( c );
+
+            for ( int i = 1; i <= bag.unique(); i++ ) {
+                Object o = bag.get( i );
+                int hash = hash( o );
+
+                if ( bag.getCount( i ) > getCount( o, hash ) ) {
+                    bagChanged |= setCopies( o, hash, bag.getCount( i ) );
+                }
+            }
+
+            return bagChanged;
         }
 
-/* The following override methods inherited from Object: */
+        /** [ADDED] Changes this MSet into the intersection of itself and the specified collection: afterwards,
+                each element has as many copies as it has in whichever of the two has fewer. Returns true iff
+                this MSet changed as a result of the operation. */
+        public boolean intersectWith ( Collection c ) {
+            boolean bagChanged = false;
+            checkWritable();
+            MSet bag = lookupOf( c );
+            /*
+                The table is walked from its last position to its first, since lowering the count of an
+                element only moves elements between its position and the end of the table (all of which
+                have already been visited).
+            */
+            for ( int i = numberOfUniqueElements; i >= 1; i-- ) {
+                Object o = get( i );
+                int copies = bag.count( o );
+
+                if ( copies < getCount( i ) ) {
+                    bagChanged |= setCopies( o, hash( o ), copies );
+                }
+            }
 
-        /** Throws an UnsupportedOperationException. Overrides Object.clone(). */
-        protected Object clone() {
-            throw new UnsupportedOperationException();
+            return bagChanged;
         }
 
-        /** Throws an UnsupportedOperationException. Overrides Object.finalize(). */
-        protected void finalize () {
-            throw new UnsupportedOperationException();
+        /** [ADDED] Changes this MSet into the sum of itself and the specified collection: afterwards, each
+                element has as many copies as it has in the two combined. Returns true iff this MSet changed
+                as a result of the operation. */
+        public boolean sumWith ( Collection c ) {
+            checkWritable();
+            boolean bagChanged = !c.isEmpty();
+            this.addAll( c );
+            return bagChanged;
         }
 
-        /** Returns a stringy representation of this MSet. Overrides Object.toString(). */
-        public String toString () {
-            String s = "";
+        /** [ADDED] Changes this MSet into the difference of itself and the specified collection: afterwards,
+                each element has as many copies as it had in this MSet, less the number of copies it has in
+                the specified collection (but no fewer than zero). Returns true iff this MSet changed as a
+                result of the operation. */
+        public boolean differenceWith ( Collection c ) {
+            boolean bagChanged = false;
+            checkWritable();
 
-            for ( int i = 0; i < numberOfElements; i++ ) {
+            if ( c == this ) {
+                bagChanged = !this.isEmpty();
+                this.clear();
+            }
+            else {
+                MSet bag = lookupOf( c );
 
-                if ( i > 0 ) {
-                    s += " ";
+                for ( int i = 1; i <= bag.unique(); i++ ) {
+                    Object o = bag.get( i );
+                    int hash = hash( o );
+                    int copies = getCount( o, hash );
+
+                    if ( copies > 0 ) {
+                        bagChanged |= setCopies( o, hash, Math.max( copies - bag.getCount( i ), 0 ) );
+                    }
                 }
+            }
+
+            return bagChanged;
+        }
+
+        /** [ADDED] Returns true if this MSet is a sub-multiset of the specified collection, i.e., if no element
+                has more copies in this MSet than it has in the specified collection. */
+        public boolean isSubMultiset ( Collection c ) {
+            MSet bag = lookupOf( c );
+
+            if ( numberOfElements > bag.size() ) {
+                return false;
+            }
 
-                s += elements[ getRow( i + 1 ) ][ getColumn( i + 1 ) ].toString();
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
 
-                if ( i < ( numberOfElements - 1 ) ) {
-                    s += ",";
+                if ( getCount( i ) > bag.count( get( i ) ) ) {
+                    return false;
                 }
             }
 
-            return s;
+            return true;
         }
-}
 
-/*
-    An Iterator over the unique elements of an MSet.
-*/
-class MSetIterator implements Iterator {
+        /** [ADDED] Returns a new MSet that is the union of the two specified collections. */
+        public static MSet union ( Collection a, Collection b ) {
+            MSet bag = new MSet( a );
+            bag.unionWith( b );
+            return bag;
+        }
+
+        /** [ADDED] Returns a new MSet that is the intersection of the two specified collections. */
+        public static MSet intersection ( Collection a, Collection b ) {
+            MSet first = lookupOf( a );
+            MSet second = lookupOf( b );
+            MSet bag = new MSet();
+            /*
+                Only the unique elements of the smaller collection can be in the intersection.
+            */
+            if ( first.unique() > second.unique() ) {
+                MSet swap = first;
+                first = second;
+                second = swap;
+            }
 
-    private Object[] uniqueElements;
-    private int numberOfUniqueElements;
-    private int index;
+            for ( int i = 1; i <= first.unique(); i++ ) {
+                Object o = first.get( i );
+                int copies = Math.min( first.getCount( i ), second.count( o ) );
 
-    public MSetIterator ( MSet bag ) {
-        uniqueElements = bag.toArray();
-        numberOfUniqueElements = bag.unique();
-        index = 0;
-    }
+                if ( copies > 0 ) {
+                    bag.setCopies( o, hash( o ), copies );
+                }
+            }
 
-    public boolean hasNext () {
-        return ( index < numberOfUniqueElements );
-    }
+            return bag;
+        }
 
-    public Object next () {
-        Object o = uniqueElements[ index ];
-        index += 1;
-        return o;
-    }
+        /** [ADDED] Returns a new MSet that is the sum of the two specified collections. */
+        public static MSet sum ( Collection a, Collection b ) {
+            MSet bag = new MSet( a );
+            bag.addAll( b );
+            return bag;
+        }
 
-    public void remove () {
-        throw new UnsupportedOperationException();
+        /** [ADDED] Returns a new MSet that is the difference of the two specified collections (the first
+                collection, less the copies of each element in the second). */
+        public static MSet difference ( Collection a, Collection b ) {
+            MSet bag = new MSet( a );
+            bag.differenceWith( b );
+            return bag;
+        }
+
+        /** [ADDED] Returns a new MSet that holds the elements of the specified collection, built in parallel.
+                The result has the same size, unique elements and counts as new MSet( c ). */
+        public static MSet parallelOf ( Collection c ) {
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            /*
+                The elements of an MSet are copied with their counts, as the sequential constructor does.
+            */
+            else if ( c instanceof MSet ) {
+                return new MSet( c );
+            }
+            else {
+                return parallelOf( c.toArray() );
+            }
+        }
+
+        /** [ADDED] Returns a new MSet that holds the elements of the specified array, built in parallel: the
+                array is split into ranges, each range is counted into its own MSet by a task of the common
+                fork/join pool, and the MSets are then merged, each unique element with all of its copies. */
+        public static MSet parallelOf ( Object[] a ) {
+
+            if ( a == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                int threshold = Math.max( MSetBuilder.minimumSizeOfRange, a.length / ( 4 * ForkJoinPool.getCommonPoolParallelism() ) );
+                return ForkJoinPool.commonPool().invoke( new MSetBuilder( a, 0, a.length, threshold ) );
+            }
+        }
+
+        /** [ADDED] Returns a read-only copy of this MSet, as it is now, in time proportional to the number of
+                partitions. The copy shares the partitions of this MSet until this MSet changes them, so it
+                remains a consistent view while this MSet goes on changing; every operation that would change
+                the copy throws an UnsupportedOperationException. The copy may be read by other threads once
+                it has been safely published to them (e.g., through a volatile field). */
+        public MSet snapshot () {
+            MSet snapshot = new MSet();
+            snapshot.shareWith( this );
+            snapshot.isReadOnly = true;
+            return snapshot;
+        }
+
+        /** [ADDED] Returns an immutable, compact copy of this MSet, which can be queried in constant time and
+                shared by many threads without locking. Later changes to this MSet do not affect it. */
+        public FrozenMSet freeze () {
+            return new FrozenMSet( this );
+        }
+
+        /** [ADDED] Writes a snapshot of this MSet (each unique element, encoded by the specified codec, with
+                its count) to the file at the specified path. The snapshot can be opened in place with open, or
+                read back into a new MSet with load. */
+        public void writeSnapshot ( Path path, MSetCodec codec ) throws IOException {
+            MappedMSet.write( this, path, codec );
+        }
+
+        /** [ADDED] Returns a read-only view of the snapshot at the specified path, which is mapped into memory
+                rather than read, so that it opens in time independent of its size and can be shared by many
+                processes. */
+        public static MappedMSet open ( Path path, MSetCodec codec ) throws IOException {
+            return new MappedMSet( path, codec );
+        }
+
+        /** [ADDED] Returns a new MSet that holds the elements of the snapshot at the specified path. */
+        public static MSet load ( Path path, MSetCodec codec ) throws IOException {
+            MappedMSet snapshot = new MappedMSet( path, codec );
+            MSet bag = new MSet();
+            int record = snapshot.firstRecord();
+
+            bag.ensureCapacity( snapshot.unique() );
+            /*
+                The records are in the order of the table, from the most copies to the fewest, so each
+                element is appended to the last run of the new table.
+            */
+            for ( int i = 0; i < snapshot.unique(); i++ ) {
+                Object o = snapshot.elementOf( record );
+                bag.setCopies( o, hash( o ), snapshot.countOf( record ) );
+                record = snapshot.nextRecord( record );
+            }
+
+            return bag;
+        }
+
+        /*
+            Returns the unique element at the specified position of the table.
+        */
+        Object get ( int slot ) {
+            return elements[ getRow( slot ) ][ getColumn( slot ) ];
+        }
+
+        /*
+            Returns the number of copies of the unique element at the specified position of the table.
+        */
+        int getCount ( int slot ) {
+            return counts[ getRow( slot ) ][ getColumn( slot ) ];
+        }
+
+        /*
+            Returns the position of the table that starts the partition closest to the middle of the
+            positions from start (inclusive) to end (exclusive), or zero if the positions lie within a
+            single partition.
+        */
+        static int splitPosition ( int start, int end ) {
+            int middle = start + ( ( end - start ) / 2 );
+            middle = ( getRow( middle ) * sizeOfPartition ) + 1;
+
+            if ( middle <= start ) {
+                middle += sizeOfPartition;
+            }
+
+            if ( middle >= end ) {
+                return 0;
+            }
+            else {
+                return middle;
+            }
+        }
+
+        /*
+            Returns the number of times this MSet has been changed, so that iterators can detect changes
+            made while they are in use.
+        */
+        int getNumberOfModifications () {
+            return numberOfModifications;
+        }
+
+        /*
+            Adds the specified number of copies of an element, whose hash is already known, to this MSet.
+            The caller is responsible for checking that the size of this MSet does not overflow.
+        */
+        private void addCopies ( Object o, int hash, int copies ) {
+            int bucket = findBucket( o, hash );
+            int slot = getSlot( bucket );
+            changeCopies( o, hash, bucket, ( ( slot == 0 ) ? 0 : getCount( slot ) ) + copies );
+        }
+
+        /*
+            Returns the number of copies of an element whose hash is already known.
+        */
+        private int getCount ( Object o, int hash ) {
+            int slot = getSlot( findBucket( o, hash ) );
+
+            if ( slot == 0 ) {
+                return 0;
+            }
+            else {
+                return counts[ getRow( slot ) ][ getColumn( slot ) ];
+            }
+        }
+
+        /*
+            Changes the number of copies of an element, whose hash is already known, to the specified
+            (non-negative) count. Returns true iff this MSet changed as a result of the operation.
+        */
+        private boolean setCopies ( Object o, int hash, int count ) {
+            int bucket = findBucket( o, hash );
+            int slot = getSlot( bucket );
+            int oldCount = ( slot == 0 ) ? 0 : counts[ getRow( slot ) ][ getColumn( slot ) ];
+
+            if ( count == oldCount ) {
+                return false;
+            }
+            else if ( ( ( long ) numberOfElements - oldCount + count ) > Integer.MAX_VALUE ) {
+                throw new IllegalStateException();
+            }
+            else {
+                changeCopies( o, hash, bucket, count );
+                return true;
+            }
+        }
+
+        /*
+            Changes the number of copies of an element, whose hash and bucket of the index are already
+            known, to the specified (non-negative) count, which must differ from its current count. This is
+            the only place where counts change, so it is also where the table is kept in order.
+
+            The table is kept sorted from the highest count to the lowest, and the positions that share a
+            count form a run whose first and last positions are recorded under that count. When a count
+            changes, the element first swaps places with the end of its run that faces the direction it
+            has to move in, and then with the far end of each neighbouring run it has to pass, so a change
+            by one copy moves at most two elements, and a change by many copies moves one element for each
+            run it passes (at most one per distinct count between the old count and the new one).
+        */
+        private void changeCopies ( Object o, int hash, int bucket, int count ) {
+            int slot = getSlot( bucket );
+            int oldCount = ( slot == 0 ) ? 0 : getCount( slot );
+            /*
+                A change moves entries of the index and the runs, which must not be seen by any MSet that
+                shares them. The chunks of the index are copied as they are changed (see setSlot), but the
+                runs are copied whole, as there are only as many of them as there are distinct counts.
+            */
+            if ( areRunsShared ) {
+                resizeRuns( runCounts.length );
+            }
+            /*
+                An element that had no copies is placed at the end of the table and moved forward from there.
+            */
+            if ( slot == 0 ) {
+                setSlot( bucket, appendUniqueElement( o, count ) );
+                moveTowardsFront( numberOfUniqueElements, count );
+                /*
+                    Doubles the size of the index once it is three quarters full, so that probe sequences
+                    stay short.
+                */
+                if ( numberOfUniqueElements * 4 >= sizeOfIndex * 3 ) {
+                    resizeIndex( sizeOfIndex * 2 );
+                }
+            }
+            else if ( count > oldCount ) {
+                moveTowardsFront( leaveRun( slot, oldCount, true ), count );
+            }
+            else if ( count > 0 ) {
+                moveTowardsBack( leaveRun( slot, oldCount, false ), count );
+            }
+            /*
+                An element that no longer has any copies is moved to the end of the table, and then taken
+                out of the table and the index.
+            */
+            else {
+                moveTowardsBack( leaveRun( slot, oldCount, false ), 0 );
+                removeBucket( bucket );
+                removeLastUniqueElement();
+            }
+
+            numberOfElements += count - oldCount;
+            numberOfModifications += 1;
+            sumOfHashes += hash * ( count - oldCount );
+        }
+
+        /*
+            Takes the element at the specified position out of the run of elements with the specified
+            count, by swapping it with the first (if towardsFront is true) or the last position of the run.
+            Returns the position the element was moved to.
+        */
+        private int leaveRun ( int slot, int count, boolean towardsFront ) {
+            int run = findRun( count );
+            int start = runStarts[ run ];
+            int end = runEnds[ run ];
+            int position = towardsFront ? start : end;
+            swapUniqueElements( slot, position );
+
+            if ( start == end ) {
+                removeRun( run );
+            }
+            else if ( towardsFront ) {
+                runStarts[ run ] = start + 1;
+            }
+            else {
+                runEnds[ run ] = end - 1;
+            }
+
+            return position;
+        }
+
+        /*
+            Moves the element at the specified position, which belongs to no run, ahead of every run with a
+            lower count than the specified one, gives it that count and adds it to the run of that count.
+        */
+        private void moveTowardsFront ( int slot, int count ) {
+
+            while ( ( slot > 1 ) && ( getCount( slot - 1 ) < count ) ) {
+                int run = findRun( getCount( slot - 1 ) );
+                int start = runStarts[ run ];
+                swapUniqueElements( slot, start );
+                runStarts[ run ] = start + 1;
+                runEnds[ run ] = slot;
+                slot = start;
+            }
+
+            copyRowIfShared( getRow( slot ) );
+            counts[ getRow( slot ) ][ getColumn( slot ) ] = count;
+            joinRun( slot, count );
+        }
+
+        /*
+            Moves the element at the specified position, which belongs to no run, behind every run with a
+            higher count than the specified one, gives it that count and (unless the count is zero) adds it
+            to the run of that count.
+        */
+        private void moveTowardsBack ( int slot, int count ) {
+
+            while ( ( slot < numberOfUniqueElements ) && ( getCount( slot + 1 ) > count ) ) {
+                int run = findRun( getCount( slot + 1 ) );
+                int end = runEnds[ run ];
+                swapUniqueElements( slot, end );
+                runStarts[ run ] = slot;
+                runEnds[ run ] = end - 1;
+                slot = end;
+            }
+
+            copyRowIfShared( getRow( slot ) );
+            counts[ getRow( slot ) ][ getColumn( slot ) ] = count;
+
+            if ( count > 0 ) {
+                joinRun( slot, count );
+            }
+        }
+
+        /*
+            Adds the specified position, which lies just before or just after the run of the specified
+            count (if there is one), to that run.
+        */
+        private void joinRun ( int slot, int count ) {
+            int run = findRun( count );
+
+            if ( runCounts[ run ] == 0 ) {
+                addRun( count, slot, slot );
+            }
+            else if ( runEnds[ run ] == slot - 1 ) {
+                runEnds[ run ] = slot;
+            }
+            else {
+                runStarts[ run ] = slot;
+            }
+        }
+
+        /*
+            Swaps the elements (and counts) at two positions of the table, and updates their entries in the
+            index accordingly.
+        */
+        private void swapUniqueElements ( int i, int j ) {
+
+            if ( i != j ) {
+                Object first = elements[ getRow( i ) ][ getColumn( i ) ];
+                Object second = elements[ getRow( j ) ][ getColumn( j ) ];
+                int firstCount = counts[ getRow( i ) ][ getColumn( i ) ];
+                int firstBucket = findSlot( first, i );
+                int secondBucket = findSlot( second, j );
+                copyRowIfShared( getRow( i ) );
+                copyRowIfShared( getRow( j ) );
+                elements[ getRow( i ) ][ getColumn( i ) ] = second;
+                elements[ getRow( j ) ][ getColumn( j ) ] = first;
+                counts[ getRow( i ) ][ getColumn( i ) ] = counts[ getRow( j ) ][ getColumn( j ) ];
+                counts[ getRow( j ) ][ getColumn( j ) ] = firstCount;
+                setSlot( firstBucket, j );
+                setSlot( secondBucket, i );
+            }
+        }
+
+        /*
+            Returns the position in the table of runs that either holds the specified count or, if no
+            position of the elements table has that count, is the empty position where it belongs.
+        */
+        private int findRun ( int count ) {
+            int mask = runCounts.length - 1;
+            int run = hashOfCount( count ) & mask;
+
+            while ( ( runCounts[ run ] != 0 ) && ( runCounts[ run ] != count ) ) {
+                run = ( run + 1 ) & mask;
+            }
+
+            return run;
+        }
+
+        /*
+            Records that the positions from start to end (inclusive) of the elements table have the
+            specified count.
+        */
+        private void addRun ( int count, int start, int end ) {
+            int run = findRun( count );
+            runCounts[ run ] = count;
+            runStarts[ run ] = start;
+            runEnds[ run ] = end;
+            numberOfRuns += 1;
+
+            if ( numberOfRuns * 4 >= runCounts.length * 3 ) {
+                resizeRuns( runCounts.length * 2 );
+            }
+        }
+
+        /*
+            Empties the specified position of the table of runs, shifting entries further along the same
+            probe sequence back into the gap.
+        */
+        private void removeRun ( int run ) {
+            int mask = runCounts.length - 1;
+            int gap = run;
+            int next = ( run + 1 ) & mask;
+
+            while ( runCounts[ next ] != 0 ) {
+                int home = hashOfCount( runCounts[ next ] ) & mask;
+
+                if ( ( ( next - home ) & mask ) >= ( ( next - gap ) & mask ) ) {
+                    runCounts[ gap ] = runCounts[ next ];
+                    runStarts[ gap ] = runStarts[ next ];
+                    runEnds[ gap ] = runEnds[ next ];
+                    gap = next;
+                }
+
+                next = ( next + 1 ) & mask;
+            }
+
+            runCounts[ gap ] = 0;
+            numberOfRuns -= 1;
+        }
+
+        /*
+            Rebuilds the table of runs with the specified number of positions, which must be a power of two.
+        */
+        private void resizeRuns ( int size ) {
+            int[] oldCounts = runCounts;
+            int[] oldStarts = runStarts;
+            int[] oldEnds = runEnds;
+            runCounts = new int[ size ];
+            runStarts = new int[ size ];
+            runEnds = new int[ size ];
+            areRunsShared = false;
+
+            for ( int i = 0; i < oldCounts.length; i++ ) {
+
+                if ( oldCounts[ i ] != 0 ) {
+                    int run = findRun( oldCounts[ i ] );
+                    runCounts[ run ] = oldCounts[ i ];
+                    runStarts[ run ] = oldStarts[ i ];
+                    runEnds[ run ] = oldEnds[ i ];
+                }
+            }
+        }
+
+        /*
+            Rebuilds the table of runs from the elements table, which must already be in order.
+        */
+        private void rebuildRuns () {
+            runCounts = new int[ initialSizeOfRuns ];
+            runStarts = new int[ initialSizeOfRuns ];
+            runEnds = new int[ initialSizeOfRuns ];
+            areRunsShared = false;
+            numberOfRuns = 0;
+            int start = 1;
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+
+                if ( ( i == numberOfUniqueElements ) || ( getCount( i + 1 ) != getCount( i ) ) ) {
+                    addRun( getCount( i ), start, i );
+                    start = i + 1;
+                }
+            }
+        }
+
+        /*
+            Adds all copies of every element of the specified MSet to this MSet.
+        */
+        private void addBag ( MSet bag ) {
+
+            if ( numberOfElements > Integer.MAX_VALUE - bag.size() ) {
+                throw new IllegalStateException();
+            }
+            /*
+                Adding an MSet to itself would move its elements while they are being read, so the elements
+                are read from a copy instead.
+            */
+            else if ( bag == this ) {
+                addBag( new MSet( this ) );
+            }
+            /*
+                If this MSet is empty, it shares the partitions, index and runs of the other MSet, until
+                one of the two changes them.
+            */
+            else if ( numberOfUniqueElements == 0 ) {
+                shareWith( bag );
+            }
+            /*
+                Otherwise, makes room in the table and the index for every unique element of the other MSet
+                before adding the copies of each one.
+            */
+            else {
+                int numberOfNewElements = bag.unique();
+                ensureCapacity( numberOfUniqueElements + numberOfNewElements );
+
+                for ( int i = 1; i <= numberOfNewElements; i++ ) {
+                    addCopies( bag.get( i ), hash( bag.get( i ) ), bag.getCount( i ) );
+                }
+            }
+        }
+
+        /*
+            Grows the directory of partitions and the index, if necessary, so that the specified number of
+            unique elements fit without any further resizing.
+        */
+        private void ensureCapacity ( int capacity ) {
+            int rows = ( int ) Math.min( ( capacity + ( long ) sizeOfPartition - 1 ) / sizeOfPartition, numberOfPartitions );
+            int newSizeOfIndex = sizeOfIndex;
+
+            if ( rows > elements.length ) {
+                resizeDirectory( rows );
+            }
+
+            while ( ( capacity * 4L ) >= ( newSizeOfIndex * 3L ) ) {
+                newSizeOfIndex *= 2;
+            }
+
+            if ( newSizeOfIndex > sizeOfIndex ) {
+                resizeIndex( newSizeOfIndex );
+            }
+        }
+
+        /*
+            Returns an MSet that can be used to look up the elements of the specified collection. If the
+            collection is not an MSet, the elements are copied into a temporary MSet, so that each lookup
+            takes constant time.
+        */
+        private static MSet lookupOf ( Collection c ) {
+
+            if ( c instanceof MSet ) {
+                return ( MSet ) c;
+            }
+            else {
+                return new MSet( c );
+            }
+        }
+
+        /*
+            Removes all copies of every unique element that is (if retainContained is false) or is not
+            (if retainContained is true) contained within the specified MSet, in a single pass. The
+            elements that remain are moved towards the front of the table as the pass goes (keeping their
+            order), after which the emptied partitions are released and the index and the runs are
+            rebuilt. Returns true iff this MSet changed as a result of the operation.
+        */
+        private boolean removeUniqueElements ( MSet lookup, boolean retainContained ) {
+            int numberOfKeptElements = 0;
+            int last = numberOfUniqueElements;
+
+            for ( int i = 1; i <= last; i++ ) {
+                Object o = elements[ getRow( i ) ][ getColumn( i ) ];
+                int count = counts[ getRow( i ) ][ getColumn( i ) ];
+
+                if ( lookup.contains( o ) == retainContained ) {
+                    numberOfKeptElements += 1;
+                    copyRowIfShared( getRow( numberOfKeptElements ) );
+                    elements[ getRow( numberOfKeptElements ) ][ getColumn( numberOfKeptElements ) ] = o;
+                    counts[ getRow( numberOfKeptElements ) ][ getColumn( numberOfKeptElements ) ] = count;
+                }
+                else {
+                    numberOfElements -= count;
+                    sumOfHashes -= hash( o ) * count;
+                }
+            }
+
+            if ( numberOfKeptElements == last ) {
+                return false;
+            }
+            /*
+                Releases the partitions that no longer hold any elements, starting from the last one, and
+                then clears the positions that are no longer in use in the partitions that remain.
+            */
+            int rowsInUse = ( numberOfKeptElements + sizeOfPartition - 1 ) / sizeOfPartition;
+
+            for ( int row = getRow( last ); row >= rowsInUse; row-- ) {
+                removePartition( row );
+            }
+
+            for ( int i = numberOfKeptElements + 1; i <= Math.min( last, rowsInUse * sizeOfPartition ); i++ ) {
+                copyRowIfShared( getRow( i ) );
+                elements[ getRow( i ) ][ getColumn( i ) ] = null;
+                counts[ getRow( i ) ][ getColumn( i ) ] = 0;
+            }
+
+            numberOfUniqueElements = numberOfKeptElements;
+            numberOfModifications += 1;
+            resizeIndex( sizeOfIndex );
+            rebuildRuns();
+            return true;
+        }
+
+        /*
+            Places a new unique element in the next free position of the table with the specified count,
+            and returns that position. The element is not yet part of any run.
+        */
+        private int appendUniqueElement ( Object o, int count ) {
+            /*
+                Adds a new partition to the next row of the table if the current row of the table is full
+                (or if the table has no rows yet).
+            */
+            if ( getColumn( numberOfUniqueElements + 1 ) == 0 ) {
+                addPartition( getRow( numberOfUniqueElements + 1 ) );
+            }
+
+            numberOfUniqueElements += 1;
+            copyRowIfShared( getRow( numberOfUniqueElements ) );
+            elements[ getRow( numberOfUniqueElements ) ][ getColumn( numberOfUniqueElements ) ] = o;
+            counts[ getRow( numberOfUniqueElements ) ][ getColumn( numberOfUniqueElements ) ] = count;
+            return numberOfUniqueElements;
+        }
+
+        /*
+            Removes the unique element at the last position of the table, whose entry in the index has
+            already been removed.
+        */
+        private void removeLastUniqueElement () {
+            int last = numberOfUniqueElements;
+            copyRowIfShared( getRow( last ) );
+            elements[ getRow( last ) ][ getColumn( last ) ] = null;
+            counts[ getRow( last ) ][ getColumn( last ) ] = 0;
+            /*
+                Removes the last row of the table if there no longer are any elements in it.
+            */
+            if ( getColumn( last ) == 0 ) {
+                removePartition( getRow( last ) );
+            }
+
+            numberOfUniqueElements -= 1;
+        }
+
+        /*
+            Makes this MSet share the partitions, index and runs of the specified MSet (in place of its
+            own), flagging them as shared in both MSets so that each copies them before changing them.
+        */
+        private void shareWith ( MSet bag ) {
+            int rowsInUse = ( bag.unique() + sizeOfPartition - 1 ) / sizeOfPartition;
+            elements = new Object[ bag.elements.length ][];
+            counts = new int[ bag.counts.length ][];
+            sharedRows = new boolean[ bag.sharedRows.length ];
+
+            for ( int row = 0; row < rowsInUse; row++ ) {
+                elements[ row ] = bag.elements[ row ];
+                counts[ row ] = bag.counts[ row ];
+                sharedRows[ row ] = true;
+                bag.sharedRows[ row ] = true;
+            }
+
+            index = new int[ bag.index.length ][];
+            sizeOfIndex = bag.sizeOfIndex;
+            sharedIndexChunks = new boolean[ bag.index.length ];
+
+            for ( int chunk = 0; chunk < index.length; chunk++ ) {
+                index[ chunk ] = bag.index[ chunk ];
+                sharedIndexChunks[ chunk ] = true;
+                bag.sharedIndexChunks[ chunk ] = true;
+            }
+
+            runCounts = bag.runCounts;
+            runStarts = bag.runStarts;
+            runEnds = bag.runEnds;
+            numberOfRuns = bag.numberOfRuns;
+            areRunsShared = true;
+            bag.areRunsShared = true;
+            numberOfElements = bag.size();
+            numberOfUniqueElements = bag.unique();
+            numberOfModifications += 1;
+            sumOfHashes = bag.hashCode();
+        }
+
+        /*
+            Replaces the partition in the specified row of the table with a copy, if it may be shared with
+            another MSet, so that it can be changed.
+        */
+        private void copyRowIfShared ( int row ) {
+
+            if ( sharedRows[ row ] ) {
+                Object[] newElements = new Object[ sizeOfPartition ];
+                int[] newCounts = new int[ sizeOfPartition ];
+                System.arraycopy( elements[ row ], 0, newElements, 0, sizeOfPartition );
+                System.arraycopy( counts[ row ], 0, newCounts, 0, sizeOfPartition );
+                elements[ row ] = newElements;
+                counts[ row ] = newCounts;
+                sharedRows[ row ] = false;
+            }
+        }
+
+        /*
+            Throws an UnsupportedOperationException if this MSet is a read-only snapshot.
+        */
+        private void checkWritable () {
+
+            if ( isReadOnly ) {
+                throw new UnsupportedOperationException();
+            }
+        }
+
+        /*
+            Adds a new partition to the specified row of the table. If the directory of partitions has
+            no room for the row, the directory is first doubled in size (up to the maximum number of
+            partitions).
+        */
+        private void addPartition ( int row ) {
+
+            if ( row >= elements.length ) {
+                resizeDirectory( Math.min( Math.max( elements.length * 2, row + 1 ), numberOfPartitions ) );
+            }
+
+            /*
+                The row may still hold an empty partition that was kept by clear. Otherwise, a partition is
+                taken from the pool, if there is one with a partition to spare, or else allocated.
+            */
+            if ( ( elements[ row ] == null ) && ( ( pool == null ) || !pool.take( elements, counts, row ) ) ) {
+                elements[ row ] = new Object[ sizeOfPartition ];
+                counts[ row ] = new int[ sizeOfPartition ];
+            }
+
+            sharedRows[ row ] = false;
+        }
+
+        /*
+            Removes the partition in the specified row of the table, which must be the last row in use,
+            returning it (emptied) to the pool of this MSet unless it is shared. Once no more than a
+            quarter of the directory of partitions is in use, the directory is halved in size.
+        */
+        private void removePartition ( int row ) {
+
+            if ( ( pool != null ) && !sharedRows[ row ] ) {
+                clearPartition( row );
+                pool.give( elements[ row ], counts[ row ] );
+            }
+
+            elements[ row ] = null;
+            counts[ row ] = null;
+            sharedRows[ row ] = false;
+
+            if ( ( elements.length > initialNumberOfPartitions ) && ( row * 4 <= elements.length ) ) {
+                resizeDirectory( Math.max( elements.length / 2, initialNumberOfPartitions ) );
+            }
+        }
+
+        /*
+            Empties every position of the partition in the specified row of the table, so that it no longer
+            refers to any element.
+        */
+        private void clearPartition ( int row ) {
+            Object[] elementsOfRow = elements[ row ];
+            int[] countsOfRow = counts[ row ];
+
+            for ( int column = 0; column < sizeOfPartition; column++ ) {
+                elementsOfRow[ column ] = null;
+                countsOfRow[ column ] = 0;
+            }
+        }
+
+        /*
+            Copies the rows of the table into a directory of partitions of the specified size.
+        */
+        private void resizeDirectory ( int size ) {
+            Object[][] newElements = new Object[ size ][];
+            int[][] newCounts = new int[ size ][];
+            boolean[] newSharedRows = new boolean[ size ];
+            int rowsInUse = Math.min( elements.length, size );
+            System.arraycopy( elements, 0, newElements, 0, rowsInUse );
+            System.arraycopy( counts, 0, newCounts, 0, rowsInUse );
+            System.arraycopy( sharedRows, 0, newSharedRows, 0, rowsInUse );
+            elements = newElements;
+            counts = newCounts;
+            sharedRows = newSharedRows;
+        }
+
+        /*
+            Returns the bucket of the index that either refers to the specified element or, if the element
+            is not in the table, is the empty bucket where a reference to it belongs.
+        */
+        private int findBucket ( Object o ) {
+            return findBucket( o, hash( o ) );
+        }
+
+        /*
+            Returns the same bucket as findBucket( o ), for an element whose hash is already known.
+        */
+        private int findBucket ( Object o, int hash ) {
+            int mask = sizeOfIndex - 1;
+            int bucket = hash & mask;
+            int slot = getSlot( bucket );
+
+            while ( ( slot != 0 ) && !elements[ getRow( slot ) ][ getColumn( slot ) ].equals( o ) ) {
+                bucket = ( bucket + 1 ) & mask;
+                slot = getSlot( bucket );
+            }
+
+            return bucket;
+        }
+
+        /*
+            Returns the bucket of the index that refers to the specified position of the table, which is
+            known to hold the specified element.
+        */
+        private int findSlot ( Object o, int slot ) {
+            int mask = sizeOfIndex - 1;
+            int bucket = hash( o ) & mask;
+
+            while ( getSlot( bucket ) != slot ) {
+                bucket = ( bucket + 1 ) & mask;
+            }
+
+            return bucket;
+        }
+
+        /*
+            Empties the specified bucket of the index. Entries further along the same probe sequence are
+            shifted back into the gap so that no lookup is cut short by it.
+        */
+        private void removeBucket ( int bucket ) {
+            int mask = sizeOfIndex - 1;
+            int gap = bucket;
+            int next = ( bucket + 1 ) & mask;
+            int slot = getSlot( next );
+
+            while ( slot != 0 ) {
+                int home = hash( elements[ getRow( slot ) ][ getColumn( slot ) ] ) & mask;
+
+                if ( ( ( next - home ) & mask ) >= ( ( next - gap ) & mask ) ) {
+                    setSlot( gap, slot );
+                    gap = next;
+                }
+
+                next = ( next + 1 ) & mask;
+                slot = getSlot( next );
+            }
+
+            setSlot( gap, 0 );
+        }
+
+        /*
+            Rebuilds the index with the specified number of buckets, which must be a power of two.
+        */
+        private void resizeIndex ( int size ) {
+            newIndex( size );
+            int mask = size - 1;
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                int bucket = hash( elements[ getRow( i ) ][ getColumn( i ) ] ) & mask;
+
+                while ( getSlot( bucket ) != 0 ) {
+                    bucket = ( bucket + 1 ) & mask;
+                }
+
+                setSlot( bucket, i );
+            }
+        }
+
+        /*
+            Replaces the index with an empty one of the specified number of buckets, which must be a power
+            of two. An index of more than one chunk is made up of full chunks.
+        */
+        private void newIndex ( int size ) {
+            int numberOfChunks = Math.max( size >>> indexChunkShift, 1 );
+            index = new int[ numberOfChunks ][];
+            sharedIndexChunks = new boolean[ numberOfChunks ];
+            sizeOfIndex = size;
+
+            for ( int chunk = 0; chunk < numberOfChunks; chunk++ ) {
+                index[ chunk ] = new int[ Math.min( size, sizeOfIndexChunk ) ];
+            }
+        }
+
+        /*
+            Returns the position of the table that the specified bucket of the index refers to, or zero if
+            the bucket is empty.
+        */
+        private int getSlot ( int bucket ) {
+            return index[ bucket >>> indexChunkShift ][ bucket & ( sizeOfIndexChunk - 1 ) ];
+        }
+
+        /*
+            Makes the specified bucket of the index refer to the specified position of the table (or, given
+            zero, empties it). The chunk that holds the bucket is first copied, if it may be shared with
+            another MSet.
+        */
+        private void setSlot ( int bucket, int slot ) {
+            int chunk = bucket >>> indexChunkShift;
+
+            if ( sharedIndexChunks[ chunk ] ) {
+                index[ chunk ] = index[ chunk ].clone();
+                sharedIndexChunks[ chunk ] = false;
+            }
+
+            index[ chunk ][ bucket & ( sizeOfIndexChunk - 1 ) ] = slot;
+        }
+
+        /*
+            Returns a well-mixed hash of an element, so that elements with poorly distributed hash codes
+            still spread across the buckets of the index.
+        */
+        static int hash ( Object o ) {
+            int h = o.hashCode();
+            h ^= ( h >>> 16 );
+            h *= 0x85ebca6b;
+            h ^= ( h >>> 13 );
+            return h;
+        }
+
+        /*
+            Returns a well-mixed hash of a count, for the table of runs.
+        */
+        private static int hashOfCount ( int count ) {
+            int h = count * 0x9e3779b9;
+            return ( h ^ ( h >>> 16 ) );
+        }
+
+        /*
+            Returns the row of an element in the elements table.
+        */
+        private static int getRow ( int n ) {
+            return ( ( n - 1 ) / sizeOfPartition );
+        }
+
+        /*
+            Returns the column of an element in the elements table.
+        */
+        private static int getColumn ( int n ) {
+            return ( ( n - 1 ) % sizeOfPartition );
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** [REVISED] Returns a copy of this MSet that can be changed independently of it, in time proportional
+                to the number of partitions (see snapshot). The copy can be changed even if this MSet is a
+                read-only snapshot. Overrides Object.clone(). */
+        public MSet clone () {
+            MSet copy = new MSet();
+            copy.shareWith( this );
+            copy.pool = pool;
+            return copy;
+        }
+
+        /** [REVISED] Returns a stringy representation of this MSet, built by writeTo in a single StringBuilder.
+                Overrides Object.toString(). */
+        public String toString () {
+            StringBuilder s = new StringBuilder();
+
+            try {
+                writeTo( s );
+            }
+            /*
+                A StringBuilder never throws an IOException.
+            */
+            catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+
+            return s.toString();
+        }
+}
+
+/*
+    A task that counts the elements in a range of an array into a new MSet, splitting the range in two
+    (and merging the MSets of the halves) while it is longer than the threshold. The halves are merged
+    into whichever of them has more unique elements, so that fewer elements are moved.
+*/
+class MSetBuilder extends RecursiveTask<MSet> {
+
+    private static final long serialVersionUID = 1L;
+    static final int minimumSizeOfRange = 1 << 14;
+    private Object[] source;
+    private int start;
+    private int end;
+    private int threshold;
+
+    MSetBuilder ( Object[] source, int start, int end, int threshold ) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.threshold = threshold;
+    }
+
+    protected MSet compute () {
+
+        if ( end - start <= threshold ) {
+            MSet bag = new MSet();
+
+            for ( int i = start; i < end; i++ ) {
+                bag.add( source[ i ] );
+            }
+
+            return bag;
+        }
+        else {
+            int middle = start + ( ( end - start ) / 2 );
+            MSetBuilder left = new MSetBuilder( source, start, middle, threshold );
+            left.fork();
+            MSet right = new MSetBuilder( source, middle, end, threshold ).compute();
+            MSet bag = left.join();
+
+            if ( bag.unique() >= right.unique() ) {
+                bag.addAll( right );
+                return bag;
+            }
+            else {
+                right.addAll( bag );
+                return right;
+            }
+        }
+    }
+}
+
+/*
+    An Iterator over the unique elements of an MSet. It walks the table of the MSet directly, one
+    position at a time, rather than copying the unique elements up front. Changing the MSet other than
+    through the remove method of the iterator causes the iterator to throw a
+    ConcurrentModificationException.
+*/
+class MSetIterator implements Iterator {
+
+    private MSet bag;
+    private int slot;
+    private boolean canRemove;
+    private int expectedNumberOfModifications;
+
+    public MSetIterator ( MSet bag ) {
+        this.bag = bag;
+        slot = 0;
+        canRemove = false;
+        expectedNumberOfModifications = bag.getNumberOfModifications();
+    }
+
+    public boolean hasNext () {
+        return ( slot < bag.unique() );
+    }
+
+    public Object next () {
+        checkForModification();
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        slot += 1;
+        canRemove = true;
+        return bag.get( slot );
+    }
+
+    /*
+        Returns the position of the table of the element that was last returned.
+    */
+    int getSlot () {
+        return slot;
+    }
+
+    /*
+        Removes all copies of the element that was last returned. Removing an element only moves elements
+        between its position and the end of the table, one of which takes its place, so that position is
+        visited again.
+    */
+    public void remove () {
+
+        if ( !canRemove ) {
+            throw new IllegalStateException();
+        }
+
+        checkForModification();
+        bag.remove( bag.get( slot ) );
+        slot -= 1;
+        canRemove = false;
+        expectedNumberOfModifications = bag.getNumberOfModifications();
+    }
+
+    private void checkForModification () {
+
+        if ( bag.getNumberOfModifications() != expectedNumberOfModifications ) {
+            throw new java.util.ConcurrentModificationException();
+        }
+    }
+}
+
+/*
+    An Iterator over the entries of an MSet, which pairs each unique element returned by an MSetIterator
+    with its count.
+*/
+class MSetEntryIterator extends MSetIterator {
+
+    private MSet bag;
+
+    public MSetEntryIterator ( MSet bag ) {
+        super( bag );
+        this.bag = bag;
+    }
+
+    public Object next () {
+        Object o = super.next();
+        return new MSetEntry( o, bag.getCount( getSlot() ) );
+    }
+}
+
+/*
+    A Spliterator over the unique elements of an MSet, at the positions of its table from start
+    (inclusive) to end (exclusive). Like MSetIterator, it throws a ConcurrentModificationException if
+    the MSet is changed while it is in use.
+*/
+class MSetSpliterator implements Spliterator {
+
+    private MSet bag;
+    private int slot;
+    private int end;
+    private int expectedNumberOfModifications;
+
+    public MSetSpliterator ( MSet bag, int start, int end ) {
+        this.bag = bag;
+        slot = start;
+        this.end = end;
+        expectedNumberOfModifications = bag.getNumberOfModifications();
+    }
+
+    public boolean tryAdvance ( Consumer action ) {
+        checkForModification();
+
+        if ( slot >= end ) {
+            return false;
+        }
+
+        action.accept( bag.get( slot ) );
+        slot += 1;
+        return true;
+    }
+
+    public void forEachRemaining ( Consumer action ) {
+
+        while ( slot < end ) {
+            action.accept( bag.get( slot ) );
+            slot += 1;
+        }
+
+        checkForModification();
+    }
+
+    /*
+        Hands the first half of the remaining positions, rounded to a partition boundary, to a new
+        Spliterator.
+    */
+    public Spliterator trySplit () {
+        int middle = MSet.splitPosition( slot, end );
+
+        if ( middle == 0 ) {
+            return null;
+        }
+
+        Spliterator prefix = new MSetSpliterator( bag, slot, middle );
+        slot = middle;
+        return prefix;
+    }
+
+    public long estimateSize () {
+        return ( end - slot );
+    }
+
+    public int characteristics () {
+        return ( DISTINCT | NONNULL | SIZED | SUBSIZED );
+    }
+
+    private void checkForModification () {
+
+        if ( bag.getNumberOfModifications() != expectedNumberOfModifications ) {
+            throw new java.util.ConcurrentModificationException();
+        }
+    }
+}
+
+/*
+    A Spliterator over all of the elements of an MSet, including duplicates, at the positions of its table
+    from start (inclusive) to end (exclusive). The element at each position is returned as many times as
+    it has copies.
+*/
+class MSetOccurrenceSpliterator implements Spliterator {
+
+    private MSet bag;
+    private int slot;
+    private int end;
+    private int copiesLeft;
+    private long numberOfElementsLeft;
+    private int expectedNumberOfModifications;
+
+    public MSetOccurrenceSpliterator ( MSet bag, int start, int end, long numberOfElements ) {
+        this.bag = bag;
+        slot = start;
+        this.end = end;
+        copiesLeft = ( start < end ) ? bag.getCount( start ) : 0;
+        numberOfElementsLeft = numberOfElements;
+        expectedNumberOfModifications = bag.getNumberOfModifications();
+    }
+
+    private MSetOccurrenceSpliterator ( MSet bag, int start, int end, int copiesLeft, long numberOfElements, int expectedNumberOfModifications ) {
+        this.bag = bag;
+        slot = start;
+        this.end = end;
+        this.copiesLeft = copiesLeft;
+        numberOfElementsLeft = numberOfElements;
+        this.expectedNumberOfModifications = expectedNumberOfModifications;
+    }
+
+    public boolean tryAdvance ( Consumer action ) {
+        checkForModification();
+
+        if ( numberOfElementsLeft == 0 ) {
+            return false;
+        }
+        /*
+            Moves on to the next position once every copy of the current element has been returned.
+        */
+        while ( copiesLeft == 0 ) {
+            slot += 1;
+            copiesLeft = bag.getCount( slot );
+        }
+
+        action.accept( bag.get( slot ) );
+        copiesLeft -= 1;
+        numberOfElementsLeft -= 1;
+        return true;
+    }
+
+    public void forEachRemaining ( Consumer action ) {
+
+        while ( slot < end ) {
+            Object o = bag.get( slot );
+
+            while ( copiesLeft > 0 ) {
+                action.accept( o );
+                copiesLeft -= 1;
+            }
+
+            slot += 1;
+
+            if ( slot < end ) {
+                copiesLeft = bag.getCount( slot );
+            }
+        }
+
+        numberOfElementsLeft = 0;
+        checkForModification();
+    }
+
+    /*
+        Hands the first half of the remaining positions, rounded to a partition boundary, to a new
+        Spliterator. The number of elements in that half is found by adding up the counts at its
+        positions.
+    */
+    public Spliterator trySplit () {
+        int middle = MSet.splitPosition( slot, end );
+
+        if ( middle == 0 ) {
+            return null;
+        }
+
+        long numberOfElementsInPrefix = copiesLeft;
+
+        for ( int i = slot + 1; i < middle; i++ ) {
+            numberOfElementsInPrefix += bag.getCount( i );
+        }
+
+        Spliterator prefix = new MSetOccurrenceSpliterator( bag, slot, middle, copiesLeft, numberOfElementsInPrefix, expectedNumberOfModifications );
+        slot = middle;
+        copiesLeft = bag.getCount( middle );
+        numberOfElementsLeft -= numberOfElementsInPrefix;
+        return prefix;
+    }
+
+    public long estimateSize () {
+        return numberOfElementsLeft;
+    }
+
+    public int characteristics () {
+        return ( NONNULL | SIZED | SUBSIZED );
+    }
+
+    private void checkForModification () {
+
+        if ( bag.getNumberOfModifications() != expectedNumberOfModifications ) {
+            throw new java.util.ConcurrentModificationException();
+        }
     }
 }
@@ -0,0 +1,472 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+        MSetBenchmark measures the time and allocation of the main MSet operations (add, contains,
+        reduce, remove, unique, toArray, iteration, hashCode and equals) for bags of several sizes and
+        duplicate ratios, next to the same operations on a bag backed by a java.util.HashMap. It also
+        measures the allocation rate of two lifecycles: building a new bag and letting it go ("churn"),
+        and clearing a bag and filling it again ("reuse"), for which it also measures an MSet that
+        takes its partitions from an MSetPartitionPool.
+
+        Each operation is warmed up, then timed over several iterations; every iteration repeats the
+        operation (on a fresh bag, where the operation changes it) until about a million elements have
+        been processed. Only the operation itself is timed: building the bags it works on is not. For
+        each operation it prints the mean time and the bytes allocated per element (or per call, for
+        operations on the whole bag), and the number of garbage collections during the timed runs.
+
+        Usage: java -Xmx4g MSetBenchmark [size ...]
+        The sizes default to 1000, 100000 and 10000000 elements; 1%, 50% and 99% of the elements of
+        each bag are duplicates.
+*/
+
+public class MSetBenchmark extends Object {
+
+        private static final int[] defaultSizes = { 1000, 100000, 10000000 };
+        private static final double[] duplicateRatios = { 0.01, 0.50, 0.99 };
+        private static final String[] operations = { "add", "contains", "reduce", "remove", "unique", "toArray", "iterate", "hashCode", "equals", "churn", "reuse" };
+        private static final int numberOfWarmupIterations = 5;
+        private static final int numberOfMeasuredIterations = 10;
+        private static final int elementsPerIteration = 1000000;
+        private static volatile int sink;
+        private static long allocationOverhead;
+
+        public static void main ( String[] args ) {
+            int[] sizes = defaultSizes;
+
+            if ( args.length > 0 ) {
+                sizes = new int[ args.length ];
+
+                for ( int i = 0; i < args.length; i++ ) {
+                    sizes[ i ] = Integer.parseInt( args[ i ] );
+                }
+            }
+
+            /*
+                Reading the allocation counter allocates a little itself, which is subtracted from every
+                measurement.
+            */
+            long startOfAllocation = allocatedBytes();
+            allocationOverhead = allocatedBytes() - startOfAllocation;
+
+            System.out.printf( "%-10s %9s %6s %-9s %14s %14s %10s %6s%n", "bag", "size", "dups", "operation", "ns/op", "bytes/op", "x HashMap", "gcs" );
+
+            for ( int size : sizes ) {
+
+                for ( double duplicateRatio : duplicateRatios ) {
+                    Object[] data = generate( size, duplicateRatio, 42 );
+                    Object[] probes = probesOf( data );
+
+                    for ( String operation : operations ) {
+                        double[] baseline = measure( new BenchmarkedHashMap(), operation, data, probes );
+                        double[] result = measure( new BenchmarkedMSet(), operation, data, probes );
+                        print( "HashMap", size, duplicateRatio, operation, baseline, 1.0 );
+                        print( "MSet", size, duplicateRatio, operation, result, result[ 0 ] / baseline[ 0 ] );
+
+                        if ( operation.equals( "churn" ) || operation.equals( "reuse" ) ) {
+                            MSetPartitionPool pool = new MSetPartitionPool( ( size / 1024 ) + 1 );
+                            double[] pooled = measure( new BenchmarkedMSet( pool ), operation, data, probes );
+                            print( "MSet+pool", size, duplicateRatio, operation, pooled, pooled[ 0 ] / baseline[ 0 ] );
+                        }
+                    }
+                }
+            }
+        }
+
+        /*
+            Warms up and then times the specified operation on the specified kind of bag. Returns the mean
+            time (in nanoseconds) and allocation (in bytes) per operation, and the number of collections.
+        */
+        private static double[] measure ( BenchmarkedBag empty, String operation, Object[] data, Object[] probes ) {
+            BenchmarkedBag full = empty.copy();
+            full.addAll( data );
+            BenchmarkedBag equal = full.copy();
+            boolean isPerElement = !operation.equals( "toArray" ) && !operation.equals( "iterate" )
+                    && !operation.equals( "hashCode" ) && !operation.equals( "equals" );
+            int repetitions = Math.max( 1, elementsPerIteration / data.length );
+            long time = 0;
+            long allocation = 0;
+            long collections = 0;
+            long numberOfOperations = 0;
+
+            for ( int iteration = 0; iteration < numberOfWarmupIterations + numberOfMeasuredIterations; iteration++ ) {
+                boolean isMeasured = ( iteration >= numberOfWarmupIterations );
+
+                for ( int repetition = 0; repetition < repetitions; repetition++ ) {
+                    /*
+                        Operations that change the bag work on a fresh copy, which is made before the clock
+                        starts.
+                    */
+                    BenchmarkedBag bag = full;
+
+                    if ( operation.equals( "add" ) ) {
+                        bag = empty.copy();
+                    }
+                    else if ( operation.equals( "reduce" ) || operation.equals( "remove" ) ) {
+                        bag = full.copy();
+                    }
+
+                    long startOfCollections = collectionCount();
+                    long startOfAllocation = allocatedBytes();
+                    long start = System.nanoTime();
+                    sink += run( bag, equal, operation, data, probes );
+                    long end = System.nanoTime();
+                    long endOfAllocation = allocatedBytes();
+
+                    if ( isMeasured ) {
+                        time += end - start;
+                        allocation += endOfAllocation - startOfAllocation - allocationOverhead;
+                        collections += collectionCount() - startOfCollections;
+                        numberOfOperations += ( isPerElement ? data.length : 1 );
+                    }
+                }
+            }
+
+            return new double[] { ( double ) time / numberOfOperations, ( double ) allocation / numberOfOperations, collections };
+        }
+
+        /*
+            Runs the specified operation once over the whole bag, and returns a value computed from its
+            results, so that the work cannot be optimized away.
+        */
+        private static int run ( BenchmarkedBag bag, BenchmarkedBag equal, String operation, Object[] data, Object[] probes ) {
+            int result = 0;
+
+            if ( operation.equals( "add" ) ) {
+                bag.addAll( data );
+                result = bag.unique();
+            }
+            else if ( operation.equals( "contains" ) ) {
+
+                for ( int i = 0; i < probes.length; i++ ) {
+                    result += ( bag.contains( probes[ i ] ) ? 1 : 0 );
+                }
+            }
+            else if ( operation.equals( "reduce" ) ) {
+
+                for ( int i = 0; i < data.length; i++ ) {
+                    result += ( bag.reduce( data[ i ] ) ? 1 : 0 );
+                }
+            }
+            else if ( operation.equals( "remove" ) ) {
+
+                for ( int i = 0; i < data.length; i++ ) {
+                    result += ( bag.remove( data[ i ] ) ? 1 : 0 );
+                }
+            }
+            else if ( operation.equals( "unique" ) ) {
+
+                for ( int i = 0; i < data.length; i++ ) {
+                    result += bag.unique();
+                }
+            }
+            else if ( operation.equals( "toArray" ) ) {
+                result = bag.toArray().length;
+            }
+            else if ( operation.equals( "iterate" ) ) {
+                result = bag.iterate();
+            }
+            else if ( operation.equals( "hashCode" ) ) {
+                result = bag.hashCode();
+            }
+            else if ( operation.equals( "equals" ) ) {
+                result = ( bag.equals( equal ) ? 1 : 0 );
+            }
+            else if ( operation.equals( "churn" ) ) {
+                result = bag.churn( data );
+            }
+            else if ( operation.equals( "reuse" ) ) {
+                bag.clear();
+                bag.addAll( data );
+                result = bag.unique();
+            }
+
+            return result;
+        }
+
+        /*
+            Returns the specified number of (boxed) elements, of which the specified fraction are copies of
+            other elements, in a random order.
+        */
+        static Object[] generate ( int size, double duplicateRatio, long seed ) {
+            Random random = new Random( seed );
+            int numberOfUniqueElements = Math.max( 1, ( int ) Math.round( size * ( 1.0 - duplicateRatio ) ) );
+            Object[] data = new Object[ size ];
+            Object[] values = new Object[ numberOfUniqueElements ];
+
+            for ( int i = 0; i < numberOfUniqueElements; i++ ) {
+                values[ i ] = Integer.valueOf( random.nextInt() );
+            }
+
+            for ( int i = 0; i < size; i++ ) {
+                data[ i ] = values[ ( i < numberOfUniqueElements ) ? i : random.nextInt( numberOfUniqueElements ) ];
+            }
+
+            for ( int i = size - 1; i > 0; i-- ) {
+                int j = random.nextInt( i + 1 );
+                Object swap = data[ i ];
+                data[ i ] = data[ j ];
+                data[ j ] = swap;
+            }
+
+            return data;
+        }
+
+        /*
+            Returns the elements to look up for contains: alternately an element of the bag and an (equal
+            but distinct) object that is most likely not in the bag.
+        */
+        private static Object[] probesOf ( Object[] data ) {
+            Object[] probes = new Object[ data.length ];
+
+            for ( int i = 0; i < data.length; i++ ) {
+                probes[ i ] = ( ( i % 2 == 0 ) ? data[ i ] : Integer.valueOf( ~( ( Integer ) data[ i ] ).intValue() ) );
+            }
+
+            return probes;
+        }
+
+        /*
+            Returns the number of bytes allocated so far by the current thread, or zero if the virtual machine
+            cannot tell.
+        */
+        private static long allocatedBytes () {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+            if ( bean instanceof com.sun.management.ThreadMXBean ) {
+                return ( ( com.sun.management.ThreadMXBean ) bean ).getCurrentThreadAllocatedBytes();
+            }
+            else {
+                return 0;
+            }
+        }
+
+        /*
+            Returns the number of garbage collections so far.
+        */
+        private static long collectionCount () {
+            long numberOfCollections = 0;
+
+            for ( GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans() ) {
+                numberOfCollections += Math.max( 0, bean.getCollectionCount() );
+            }
+
+            return numberOfCollections;
+        }
+
+        private static void print ( String bag, int size, double duplicateRatio, String operation, double[] result, double ratio ) {
+            System.out.printf( "%-10s %9d %5.0f%% %-9s %14.1f %14.1f %10.2f %6.0f%n", bag, size, duplicateRatio * 100, operation,
+                    result[ 0 ], result[ 1 ], ratio, result[ 2 ] );
+        }
+}
+
+/*
+    The operations that MSetBenchmark times, for each kind of bag it compares.
+*/
+abstract class BenchmarkedBag {
+
+    abstract BenchmarkedBag copy ();
+    abstract void addAll ( Object[] data );
+    abstract boolean contains ( Object o );
+    abstract boolean reduce ( Object o );
+    abstract boolean remove ( Object o );
+    abstract int unique ();
+    abstract Object[] toArray ();
+    abstract int iterate ();
+    abstract void clear ();
+
+    /*
+        Builds a new bag of the same kind from the specified elements, and then lets it go.
+    */
+    abstract int churn ( Object[] data );
+}
+
+/*
+    An MSet, as it is benchmarked.
+*/
+class BenchmarkedMSet extends BenchmarkedBag {
+
+    private MSetPartitionPool pool;
+    private MSet bag;
+
+    BenchmarkedMSet () {
+        pool = null;
+        bag = new MSet();
+    }
+
+    BenchmarkedMSet ( MSetPartitionPool pool ) {
+        this.pool = pool;
+        bag = new MSet( pool );
+    }
+
+    /*
+        Adds each unique element to the copy with its count, rather than adding the whole MSet, which
+        would only share its partitions and index: the operations timed on the copy would then also pay
+        for copying them as they change them.
+    */
+    BenchmarkedBag copy () {
+        BenchmarkedMSet copy = ( ( pool == null ) ? new BenchmarkedMSet() : new BenchmarkedMSet( pool ) );
+
+        for ( Object o : bag ) {
+            copy.bag.add( o, bag.count( o ) );
+        }
+
+        return copy;
+    }
+
+    void clear () {
+        bag.clear();
+    }
+
+    /*
+        A bag that draws from a pool is cleared before it is let go, which returns its partitions to the
+        pool.
+    */
+    int churn ( Object[] data ) {
+        MSet newBag = ( ( pool == null ) ? new MSet() : new MSet( pool ) );
+
+        for ( int i = 0; i < data.length; i++ ) {
+            newBag.add( data[ i ] );
+        }
+
+        int numberOfUniqueElements = newBag.unique();
+
+        if ( pool != null ) {
+            newBag.clear();
+        }
+
+        return numberOfUniqueElements;
+    }
+
+    void addAll ( Object[] data ) {
+
+        for ( int i = 0; i < data.length; i++ ) {
+            bag.add( data[ i ] );
+        }
+    }
+
+    boolean contains ( Object o ) {
+        return bag.contains( o );
+    }
+
+    boolean reduce ( Object o ) {
+        return bag.reduce( o );
+    }
+
+    boolean remove ( Object o ) {
+        return bag.remove( o );
+    }
+
+    int unique () {
+        return bag.unique();
+    }
+
+    Object[] toArray () {
+        return bag.toArray();
+    }
+
+    int iterate () {
+        int sum = 0;
+
+        for ( Object o : bag ) {
+            sum += o.hashCode();
+        }
+
+        return sum;
+    }
+
+    public int hashCode () {
+        return bag.hashCode();
+    }
+
+    public boolean equals ( Object o ) {
+        return ( ( o instanceof BenchmarkedMSet ) && bag.equals( ( ( BenchmarkedMSet ) o ).bag ) );
+    }
+}
+
+/*
+    A bag backed by a HashMap from each unique element to its number of copies, as a baseline.
+*/
+class BenchmarkedHashMap extends BenchmarkedBag {
+
+    private HashMap<Object, Integer> bag = new HashMap<Object, Integer>();
+
+    BenchmarkedBag copy () {
+        BenchmarkedHashMap copy = new BenchmarkedHashMap();
+        copy.bag = new HashMap<Object, Integer>( bag );
+        return copy;
+    }
+
+    void clear () {
+        bag.clear();
+    }
+
+    int churn ( Object[] data ) {
+        HashMap<Object, Integer> newBag = new HashMap<Object, Integer>();
+
+        for ( int i = 0; i < data.length; i++ ) {
+            newBag.merge( data[ i ], 1, Integer::sum );
+        }
+
+        return newBag.size();
+    }
+
+    void addAll ( Object[] data ) {
+
+        for ( int i = 0; i < data.length; i++ ) {
+            bag.merge( data[ i ], 1, Integer::sum );
+        }
+    }
+
+    boolean contains ( Object o ) {
+        return bag.containsKey( o );
+    }
+
+    boolean reduce ( Object o ) {
+        Integer count = bag.get( o );
+
+        if ( count == null ) {
+            return false;
+        }
+        else if ( count.intValue() == 1 ) {
+            bag.remove( o );
+        }
+        else {
+            bag.put( o, count.intValue() - 1 );
+        }
+
+        return true;
+    }
+
+    boolean remove ( Object o ) {
+        return ( bag.remove( o ) != null );
+    }
+
+    int unique () {
+        return bag.size();
+    }
+
+    Object[] toArray () {
+        return bag.keySet().toArray();
+    }
+
+    int iterate () {
+        int sum = 0;
+
+        for ( Object o : bag.keySet() ) {
+            sum += o.hashCode();
+        }
+
+        return sum;
+    }
+
+    public int hashCode () {
+        return bag.hashCode();
+    }
+
+    public boolean equals ( Object o ) {
+        return ( ( o instanceof BenchmarkedHashMap ) && bag.equals( ( ( BenchmarkedHashMap ) o ).bag ) );
+    }
+}
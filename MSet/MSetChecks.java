@@ -0,0 +1,43 @@
+/**
+        An MSetChecks keeps the outcome of the checks that a benchmark or check program (such as
+        MSetFootprint or OffHeapMSetCheck) makes of its results. Each check is printed as it is made,
+        as "ok" or "FAIL" followed by what was checked, and once the program is done, exitIfFailed ends
+        it with a status of 1 if any check failed, so that a script running it can tell.
+*/
+
+class MSetChecks {
+
+        private int numberOfChecks;
+        private int numberOfFailures;
+
+        /** Constructs an MSetChecks that has not made any checks. */
+        MSetChecks () {
+            numberOfChecks = 0;
+            numberOfFailures = 0;
+        }
+
+        /*
+            Prints whether the check described by the specified name passed, and returns true if it did.
+        */
+        boolean check ( String name, boolean isPassed ) {
+            System.out.printf( "%-4s %s%n", ( isPassed ? "ok" : "FAIL" ), name );
+            numberOfChecks += 1;
+
+            if ( !isPassed ) {
+                numberOfFailures += 1;
+            }
+
+            return isPassed;
+        }
+
+        /*
+            Ends the program with a status of 1, after saying how many checks failed, if any did.
+        */
+        void exitIfFailed () {
+
+            if ( numberOfFailures > 0 ) {
+                System.out.printf( "%d of %d checks failed%n", numberOfFailures, numberOfChecks );
+                System.exit( 1 );
+            }
+        }
+}
@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+        An MSetCodec converts the elements of an MSet to and from bytes, so that the MSet can be written
+        to a snapshot file (see MSet.writeSnapshot) and read back from it. Equal elements must have
+        identical encodings, since a snapshot looks elements up by their encodings.
+*/
+
+public interface MSetCodec {
+
+        /** A codec for String elements, stored as UTF-8. */
+        MSetCodec STRING = new MSetCodec() {
+
+            public byte[] encode ( Object o ) {
+                return ( ( String ) o ).getBytes( StandardCharsets.UTF_8 );
+            }
+
+            public Object decode ( ByteBuffer buffer, int offset, int length ) {
+                byte[] bytes = new byte[ length ];
+                buffer.get( offset, bytes );
+                return new String( bytes, StandardCharsets.UTF_8 );
+            }
+        };
+
+        /** A codec for Integer elements, stored in four bytes. */
+        MSetCodec INTEGER = new MSetCodec() {
+
+            public byte[] encode ( Object o ) {
+                return ByteBuffer.allocate( 4 ).putInt( 0, ( ( Integer ) o ).intValue() ).array();
+            }
+
+            public Object decode ( ByteBuffer buffer, int offset, int length ) {
+                return Integer.valueOf( buffer.getInt( offset ) );
+            }
+        };
+
+        /** A codec for Long elements, stored in eight bytes. */
+        MSetCodec LONG = new MSetCodec() {
+
+            public byte[] encode ( Object o ) {
+                return ByteBuffer.allocate( 8 ).putLong( 0, ( ( Long ) o ).longValue() ).array();
+            }
+
+            public Object decode ( ByteBuffer buffer, int offset, int length ) {
+                return Long.valueOf( buffer.getLong( offset ) );
+            }
+        };
+
+        /** Returns the encoding of the specified element. */
+        byte[] encode ( Object o );
+
+        /** Reads an element from the specified number of bytes of the buffer, starting at the specified offset. */
+        Object decode ( ByteBuffer buffer, int offset, int length );
+}
@@ -0,0 +1,52 @@
+/**
+        An MSetEntry is a unique element of an MSet paired with its number of copies, as returned by
+        MSet.entries(). An MSetEntry is immutable: it records the count as it was when the entry was
+        returned, and does not change with the MSet.
+*/
+
+public final class MSetEntry extends Object {
+
+        private final Object element;
+        private final int count;
+
+        /** Constructs an MSetEntry for the specified element and number of copies. */
+        public MSetEntry ( Object element, int count ) {
+            this.element = element;
+            this.count = count;
+        }
+
+        /** Returns the element of this MSetEntry. */
+        public Object getElement () {
+            return element;
+        }
+
+        /** Returns the number of copies of the element of this MSetEntry. */
+        public int getCount () {
+            return count;
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Compares the specified object with this MSetEntry for equality. Two MSetEntrys are equal when they
+                have equal elements and the same count. Overrides Object.equals(). */
+        public boolean equals ( Object o ) {
+
+            if ( !( o instanceof MSetEntry ) ) {
+                return false;
+            }
+            else {
+                MSetEntry entry = ( MSetEntry ) o;
+                return ( ( count == entry.count ) && element.equals( entry.element ) );
+            }
+        }
+
+        /** Returns a hash code value for this MSetEntry. Overrides Object.hashCode(). */
+        public int hashCode () {
+            return ( element.hashCode() * 31 ) + count;
+        }
+
+        /** Returns a stringy representation of this MSetEntry. Overrides Object.toString(). */
+        public String toString () {
+            return element + " x " + count;
+        }
+}
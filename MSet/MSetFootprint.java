@@ -0,0 +1,137 @@
+import java.util.HashMap;
+
+/**
+        MSetFootprint measures the memory that MSets retain: the bytes held by an empty MSet, by a small
+        MSet (of three elements) and by an MSet of ten million elements, next to a bag backed by a
+        java.util.HashMap that holds the same elements. The elements themselves are created before the
+        measurement starts and are not counted, so only the bytes of the bag's own structure are.
+
+        Each measurement collects garbage until the heap stops shrinking, builds the bags (many of them,
+        for the empty and small bags, so that the bytes of one bag stand out from the noise), collects
+        garbage again and reports the difference in heap use per bag, and per unique element for the
+        large bag.
+
+        It also checks the bounds that MSet is meant to meet: an empty MSet retains less than a kilobyte,
+        a small MSet no more than its one partition and a kilobyte besides, and a large MSet no more than
+        its partitions and the index plus a sixteenth. If any bound is exceeded it says so and exits with
+        a status of 1.
+
+        Usage: java -Xmx4g MSetFootprint [size]
+        The size of the large bag defaults to 10000000 elements.
+*/
+
+public class MSetFootprint extends Object {
+
+        private static final int defaultSize = 10000000;
+        private static final int numberOfSmallBags = 10000;
+        private static final int sizeOfPartition = 1024;
+        private static final int bytesPerReference = 4;
+        private static Object[] sink;
+
+        public static void main ( String[] args ) {
+            int size = ( ( args.length > 0 ) ? Integer.parseInt( args[ 0 ] ) : defaultSize );
+            Object[] small = { "red", "green", "blue" };
+            Object[] large = MSetBenchmark.generate( size, 0.0, 42 );
+            int numberOfUniqueElements = new MSet( java.util.Arrays.asList( large ) ).unique();
+            MSetChecks checks = new MSetChecks();
+
+            System.out.printf( "%-8s %-7s %12s %14s %14s%n", "bag", "size", "elements", "bytes/bag", "bytes/unique" );
+
+            double emptyMSet = measure( numberOfSmallBags, new Object[ 0 ], true );
+            double emptyHashMap = measure( numberOfSmallBags, new Object[ 0 ], false );
+            print( "MSet", "empty", 0, emptyMSet, 0 );
+            print( "HashMap", "empty", 0, emptyHashMap, 0 );
+
+            double smallMSet = measure( numberOfSmallBags, small, true );
+            double smallHashMap = measure( numberOfSmallBags, small, false );
+            print( "MSet", "small", small.length, smallMSet, small.length );
+            print( "HashMap", "small", small.length, smallHashMap, small.length );
+
+            double largeMSet = measure( 1, large, true );
+            double largeHashMap = measure( 1, large, false );
+            print( "MSet", "large", size, largeMSet, numberOfUniqueElements );
+            print( "HashMap", "large", size, largeHashMap, numberOfUniqueElements );
+
+            /*
+                A partition holds a reference and a count for each of its positions.
+            */
+            long bytesPerPartition = ( long ) sizeOfPartition * ( bytesPerReference + 4 );
+            long partitions = ( ( numberOfUniqueElements + sizeOfPartition - 1 ) / sizeOfPartition ) * bytesPerPartition;
+            long index = 4L * Integer.highestOneBit( Math.max( 1, numberOfUniqueElements * 4 / 3 ) ) * 2;
+            checkBound( checks, "empty MSet", emptyMSet, 1024 );
+            checkBound( checks, "small MSet", smallMSet, bytesPerPartition + 1024 );
+            checkBound( checks, "large MSet", largeMSet, ( partitions + index ) * 17 / 16 );
+
+            sink = null;
+            checks.exitIfFailed();
+        }
+
+        /*
+            Returns the mean number of bytes retained by each of the specified number of bags (MSets, if
+            isMSet is true, or else HashMaps), each holding the specified elements.
+        */
+        private static double measure ( int numberOfBags, Object[] data, boolean isMSet ) {
+            Object[] bags = new Object[ numberOfBags ];
+            long before = usedMemory();
+
+            for ( int i = 0; i < numberOfBags; i++ ) {
+
+                if ( isMSet ) {
+                    MSet bag = new MSet();
+
+                    for ( int j = 0; j < data.length; j++ ) {
+                        bag.add( data[ j ] );
+                    }
+
+                    bags[ i ] = bag;
+                }
+                else {
+                    HashMap<Object, Integer> bag = new HashMap<Object, Integer>();
+
+                    for ( int j = 0; j < data.length; j++ ) {
+                        bag.merge( data[ j ], 1, Integer::sum );
+                    }
+
+                    bags[ i ] = bag;
+                }
+            }
+
+            long after = usedMemory();
+            sink = bags;
+            return ( double ) ( after - before ) / numberOfBags;
+        }
+
+        /*
+            Collects garbage until the heap stops shrinking, and returns the number of bytes of the heap
+            that are still in use.
+        */
+        private static long usedMemory () {
+            Runtime runtime = Runtime.getRuntime();
+            long used = Long.MAX_VALUE;
+
+            for ( int i = 0; i < 10; i++ ) {
+                System.gc();
+                long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+
+                if ( nowUsed >= used ) {
+                    return nowUsed;
+                }
+
+                used = nowUsed;
+            }
+
+            return used;
+        }
+
+        /*
+            Checks that the specified number of bytes retained by a bag is within the specified bound.
+        */
+        private static void checkBound ( MSetChecks checks, String bag, double bytes, long bound ) {
+            checks.check( String.format( "%s retains %.0f bytes (bound %d)", bag, bytes, bound ), bytes <= bound );
+        }
+
+        private static void print ( String bag, String size, int numberOfElements, double bytes, int numberOfUniqueElements ) {
+            System.out.printf( "%-8s %-7s %12d %14.1f %14.1f%n", bag, size, numberOfElements, bytes,
+                    ( ( numberOfUniqueElements == 0 ) ? 0.0 : bytes / numberOfUniqueElements ) );
+        }
+}
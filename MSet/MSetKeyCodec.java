@@ -0,0 +1,51 @@
+import java.nio.ByteBuffer;
+
+/**
+        An MSetKeyCodec converts the elements of an OffHeapMSet to and from a fixed number of bytes.
+        Two elements are treated as the same element exactly when their encodings are identical, so
+        a codec must encode equal elements to equal bytes.
+*/
+
+public interface MSetKeyCodec {
+
+        /** A codec for Integer elements, stored in four bytes. */
+        MSetKeyCodec INTEGER = new MSetKeyCodec() {
+
+            public int width () {
+                return 4;
+            }
+
+            public void encode ( Object o, ByteBuffer buffer, int offset ) {
+                buffer.putInt( offset, ( ( Integer ) o ).intValue() );
+            }
+
+            public Object decode ( ByteBuffer buffer, int offset ) {
+                return Integer.valueOf( buffer.getInt( offset ) );
+            }
+        };
+
+        /** A codec for Long elements, stored in eight bytes. */
+        MSetKeyCodec LONG = new MSetKeyCodec() {
+
+            public int width () {
+                return 8;
+            }
+
+            public void encode ( Object o, ByteBuffer buffer, int offset ) {
+                buffer.putLong( offset, ( ( Long ) o ).longValue() );
+            }
+
+            public Object decode ( ByteBuffer buffer, int offset ) {
+                return Long.valueOf( buffer.getLong( offset ) );
+            }
+        };
+
+        /** Returns the number of bytes in the encoding of every element. */
+        int width ();
+
+        /** Writes the encoding of the specified element into the buffer, starting at the specified offset. */
+        void encode ( Object o, ByteBuffer buffer, int offset );
+
+        /** Reads an element from its encoding in the buffer, starting at the specified offset. */
+        Object decode ( ByteBuffer buffer, int offset );
+}
@@ -0,0 +1,64 @@
+/**
+        An MSetPartitionPool holds empty partitions (rows of the elements and counts tables) that MSets
+        have let go of, so that MSets which draw from the same pool can reuse them rather than allocate
+        new ones. This suits programs that build and clear many short-lived MSets: see MSet( pool ).
+
+        A pool holds at most a fixed number of partitions; any more that are returned to it are left to
+        the garbage collector. A pool may be shared by MSets on different threads.
+*/
+
+public class MSetPartitionPool extends Object {
+
+        private Object[][] elementRows;
+        private int[][] countRows;
+        private int numberOfPartitions;
+
+        /** Constructs an empty MSetPartitionPool that holds at most the specified number of partitions. */
+        public MSetPartitionPool ( int capacity ) {
+
+            if ( capacity < 0 ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                elementRows = new Object[ capacity ][];
+                countRows = new int[ capacity ][];
+                numberOfPartitions = 0;
+            }
+        }
+
+        /** Returns the number of partitions in this pool. */
+        public synchronized int size () {
+            return numberOfPartitions;
+        }
+
+        /*
+            Places a partition from this pool in the specified row of the specified tables. Returns false,
+            leaving the tables as they were, if the pool is empty.
+        */
+        synchronized boolean take ( Object[][] elements, int[][] counts, int row ) {
+
+            if ( numberOfPartitions == 0 ) {
+                return false;
+            }
+            else {
+                numberOfPartitions -= 1;
+                elements[ row ] = elementRows[ numberOfPartitions ];
+                counts[ row ] = countRows[ numberOfPartitions ];
+                elementRows[ numberOfPartitions ] = null;
+                countRows[ numberOfPartitions ] = null;
+                return true;
+            }
+        }
+
+        /*
+            Returns a partition, which must already be empty, to this pool (unless the pool is full).
+        */
+        synchronized void give ( Object[] elements, int[] counts ) {
+
+            if ( numberOfPartitions < elementRows.length ) {
+                elementRows[ numberOfPartitions ] = elements;
+                countRows[ numberOfPartitions ] = counts;
+                numberOfPartitions += 1;
+            }
+        }
+}
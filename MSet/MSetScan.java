@@ -0,0 +1,78 @@
+/**
+        An MSetScan adds up the counts of the values in part of a partition of an IntMSet or a LongMSet
+        that lie within a range, which is the inner loop of countInRange. This class compares one
+        position at a time. Its subclass MSetVectorScan uses the Vector API (jdk.incubator.vector) to
+        compare a whole vector of positions at once.
+
+        The Vector API is an incubator module, so MSetVectorScan is kept in a source file of its own,
+        which is compiled (and run) with the module added, while every other class compiles without it:
+
+            javac --add-modules jdk.incubator.vector MSetVectorScan.java
+            java --add-modules jdk.incubator.vector ...
+
+        The scan that IntMSet and LongMSet use is chosen once, when this class is loaded: MSetVectorScan
+        if it can be loaded (i.e., it was compiled and the module is present at run time), or else this
+        class. Setting the system property MSetScan.scalar to true always chooses this class.
+*/
+
+class MSetScan {
+
+        /** The scan used by IntMSet and LongMSet. */
+        static final MSetScan kernel = choose();
+
+        /*
+            Returns the name of this scan.
+        */
+        String name () {
+            return "scalar";
+        }
+
+        /*
+            Returns the total count of the values at positions start (inclusive) to end (exclusive) of a
+            partition that lie between lo and hi (inclusive), where lo is no greater than hi. Shifting
+            both sides of the comparison by the minimum value turns the two bounds checks into a single
+            unsigned comparison.
+        */
+        int countInRange ( int[] partition, int[] partitionCounts, int start, int end, int lo, int hi ) {
+            int total = 0;
+            int width = ( hi - lo ) + Integer.MIN_VALUE;
+
+            for ( int j = start; j < end; j++ ) {
+                total += ( ( ( partition[ j ] - lo ) + Integer.MIN_VALUE ) <= width ) ? partitionCounts[ j ] : 0;
+            }
+
+            return total;
+        }
+
+        /*
+            Returns the same total as countInRange, for a partition of long values.
+        */
+        int countInRange ( long[] partition, int[] partitionCounts, int start, int end, long lo, long hi ) {
+            int total = 0;
+            long width = ( hi - lo ) + Long.MIN_VALUE;
+
+            for ( int j = start; j < end; j++ ) {
+                total += ( ( ( partition[ j ] - lo ) + Long.MIN_VALUE ) <= width ) ? partitionCounts[ j ] : 0;
+            }
+
+            return total;
+        }
+
+        /*
+            Returns an MSetVectorScan if one can be loaded, or else a scalar MSetScan. Loading fails with
+            a LinkageError (e.g., a NoClassDefFoundError) if the class or the incubator module is missing.
+        */
+        private static MSetScan choose () {
+
+            if ( Boolean.getBoolean( "MSetScan.scalar" ) ) {
+                return new MSetScan();
+            }
+
+            try {
+                return ( MSetScan ) Class.forName( "MSetVectorScan" ).getDeclaredConstructor().newInstance();
+            }
+            catch ( ReflectiveOperationException | LinkageError e ) {
+                return new MSetScan();
+            }
+        }
+}
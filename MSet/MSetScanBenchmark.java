@@ -0,0 +1,143 @@
+import java.util.Random;
+
+/**
+        MSetScanBenchmark measures the time per position of the scans that IntMSet and LongMSet use
+        for countInRange (see MSetScan): a plain loop with a branch on each value, the branch-free
+        scalar MSetScan, and MSetVectorScan, if it can be loaded. Each scan is run over the same
+        partitions of 1024 random values (with random counts), for a range that holds about half of
+        the values, so that a branch on each value cannot be predicted.
+
+        Each scan is warmed up and then timed over several iterations. For each one it prints the mean
+        time per position and its speedup over the scalar scan. It also checks that every scan returns
+        the same totals, and exits with a status of 1 if one does not.
+
+        Usage: java --add-modules jdk.incubator.vector MSetScanBenchmark [size]
+        The size (the number of positions scanned in each iteration) defaults to 1048576. Without the
+        module, only the scalar scans are measured.
+*/
+
+public class MSetScanBenchmark extends Object {
+
+        private static final int defaultSize = 1 << 20;
+        private static final int sizeOfPartition = 1024;
+        private static final int numberOfWarmupIterations = 200;
+        private static final int numberOfMeasuredIterations = 200;
+        private static volatile int sink;
+
+        public static void main ( String[] args ) {
+            int size = ( ( args.length > 0 ) ? Integer.parseInt( args[ 0 ] ) : defaultSize );
+            int numberOfPartitions = Math.max( 1, size / sizeOfPartition );
+            Random random = new Random( 42 );
+            int[][] intPartitions = new int[ numberOfPartitions ][ sizeOfPartition ];
+            long[][] longPartitions = new long[ numberOfPartitions ][ sizeOfPartition ];
+            int[][] counts = new int[ numberOfPartitions ][ sizeOfPartition ];
+
+            for ( int row = 0; row < numberOfPartitions; row++ ) {
+
+                for ( int column = 0; column < sizeOfPartition; column++ ) {
+                    intPartitions[ row ][ column ] = random.nextInt();
+                    longPartitions[ row ][ column ] = random.nextLong();
+                    counts[ row ][ column ] = 1 + random.nextInt( 4 );
+                }
+            }
+
+            MSetScan[] scans = { new BranchingMSetScan(), new MSetScan(), MSetScan.kernel };
+            int numberOfScans = ( ( MSetScan.kernel.getClass() == MSetScan.class ) ? 2 : 3 );
+            double[] intTimes = new double[ numberOfScans ];
+            double[] longTimes = new double[ numberOfScans ];
+            long[] intTotals = new long[ numberOfScans ];
+            long[] longTotals = new long[ numberOfScans ];
+            boolean areTotalsEqual = true;
+
+            System.out.printf( "kernel chosen by MSetScan: %s%n", MSetScan.kernel.name() );
+            System.out.printf( "%-6s %-44s %10s %10s%n", "values", "scan", "ns/slot", "x scalar" );
+
+            for ( int i = 0; i < numberOfScans; i++ ) {
+                intTotals[ i ] = sumOfTotals( scans[ i ], intPartitions, null, counts, numberOfWarmupIterations );
+                long start = System.nanoTime();
+                sumOfTotals( scans[ i ], intPartitions, null, counts, numberOfMeasuredIterations );
+                intTimes[ i ] = ( double ) ( System.nanoTime() - start ) / ( ( long ) numberOfMeasuredIterations * numberOfPartitions * sizeOfPartition );
+
+                longTotals[ i ] = sumOfTotals( scans[ i ], null, longPartitions, counts, numberOfWarmupIterations );
+                start = System.nanoTime();
+                sumOfTotals( scans[ i ], null, longPartitions, counts, numberOfMeasuredIterations );
+                longTimes[ i ] = ( double ) ( System.nanoTime() - start ) / ( ( long ) numberOfMeasuredIterations * numberOfPartitions * sizeOfPartition );
+
+                areTotalsEqual &= ( intTotals[ i ] == intTotals[ 0 ] ) && ( longTotals[ i ] == longTotals[ 0 ] );
+            }
+
+            for ( int i = 0; i < numberOfScans; i++ ) {
+                System.out.printf( "%-6s %-44s %10.3f %10.2f%n", "int", scans[ i ].name(), intTimes[ i ], intTimes[ 1 ] / intTimes[ i ] );
+            }
+
+            for ( int i = 0; i < numberOfScans; i++ ) {
+                System.out.printf( "%-6s %-44s %10.3f %10.2f%n", "long", scans[ i ].name(), longTimes[ i ], longTimes[ 1 ] / longTimes[ i ] );
+            }
+
+            if ( !areTotalsEqual ) {
+                System.out.println( "FAIL the scans returned different totals" );
+                System.exit( 1 );
+            }
+        }
+
+        /*
+            Runs the specified scan over every partition (of int values, or else of long values) the
+            specified number of times, for a range that holds about half of the values, and returns the sum
+            of the totals it returned.
+        */
+        private static long sumOfTotals ( MSetScan scan, int[][] intPartitions, long[][] longPartitions, int[][] counts, int numberOfIterations ) {
+            long sum = 0;
+
+            for ( int iteration = 0; iteration < numberOfIterations; iteration++ ) {
+
+                for ( int row = 0; row < counts.length; row++ ) {
+
+                    if ( intPartitions != null ) {
+                        sum += scan.countInRange( intPartitions[ row ], counts[ row ], 0, sizeOfPartition, Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2 );
+                    }
+                    else {
+                        sum += scan.countInRange( longPartitions[ row ], counts[ row ], 0, sizeOfPartition, Long.MIN_VALUE / 2, Long.MAX_VALUE / 2 );
+                    }
+                }
+            }
+
+            sink += ( int ) sum;
+            return sum;
+        }
+}
+
+/*
+    The plainest scan: a loop that tests each value against both bounds with a branch.
+*/
+class BranchingMSetScan extends MSetScan {
+
+    String name () {
+        return "branching";
+    }
+
+    int countInRange ( int[] partition, int[] partitionCounts, int start, int end, int lo, int hi ) {
+        int total = 0;
+
+        for ( int j = start; j < end; j++ ) {
+
+            if ( ( partition[ j ] >= lo ) && ( partition[ j ] <= hi ) ) {
+                total += partitionCounts[ j ];
+            }
+        }
+
+        return total;
+    }
+
+    int countInRange ( long[] partition, int[] partitionCounts, int start, int end, long lo, long hi ) {
+        int total = 0;
+
+        for ( int j = start; j < end; j++ ) {
+
+            if ( ( partition[ j ] >= lo ) && ( partition[ j ] <= hi ) ) {
+                total += partitionCounts[ j ];
+            }
+        }
+
+        return total;
+    }
+}
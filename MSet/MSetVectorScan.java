@@ -0,0 +1,59 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+        An MSetVectorScan is an MSetScan that compares the values of a partition a whole vector at a
+        time, using the widest vectors the processor supports: each vector of values is compared with
+        both bounds of the range, and the counts of the positions that lie within it are added to a
+        vector of running totals, whose lanes are summed at the end. The positions left over after the
+        last whole vector are scanned one at a time.
+
+        This class needs the incubator module jdk.incubator.vector to compile and to run (see
+        MSetScan); no other class refers to it by name.
+*/
+
+class MSetVectorScan extends MSetScan {
+
+        private static final VectorSpecies<Integer> ints = IntVector.SPECIES_PREFERRED;
+        private static final VectorSpecies<Long> longs = LongVector.SPECIES_PREFERRED;
+        /*
+            The counts of a vector of long values are read into an int vector with as many lanes (which
+            is half as wide), and then widened to longs.
+        */
+        private static final VectorSpecies<Integer> countsOfLongs = VectorSpecies.of( int.class, VectorShape.forBitSize( longs.length() * Integer.SIZE ) );
+
+        String name () {
+            return "vector (" + ints.length() + " int lanes, " + longs.length() + " long lanes)";
+        }
+
+        int countInRange ( int[] partition, int[] partitionCounts, int start, int end, int lo, int hi ) {
+            IntVector totals = IntVector.zero( ints );
+            int j = start;
+
+            for ( ; j + ints.length() <= end; j += ints.length() ) {
+                IntVector values = IntVector.fromArray( ints, partition, j );
+                VectorMask<Integer> isInRange = values.compare( VectorOperators.GE, lo ).and( values.compare( VectorOperators.LE, hi ) );
+                totals = totals.add( IntVector.fromArray( ints, partitionCounts, j ), isInRange );
+            }
+
+            return totals.reduceLanes( VectorOperators.ADD ) + super.countInRange( partition, partitionCounts, j, end, lo, hi );
+        }
+
+        int countInRange ( long[] partition, int[] partitionCounts, int start, int end, long lo, long hi ) {
+            LongVector totals = LongVector.zero( longs );
+            int j = start;
+
+            for ( ; j + longs.length() <= end; j += longs.length() ) {
+                LongVector values = LongVector.fromArray( longs, partition, j );
+                VectorMask<Long> isInRange = values.compare( VectorOperators.GE, lo ).and( values.compare( VectorOperators.LE, hi ) );
+                LongVector countsOfValues = ( LongVector ) IntVector.fromArray( countsOfLongs, partitionCounts, j ).convertShape( VectorOperators.I2L, longs, 0 );
+                totals = totals.add( countsOfValues, isInRange );
+            }
+
+            return ( int ) totals.reduceLanes( VectorOperators.ADD ) + super.countInRange( partition, partitionCounts, j, end, lo, hi );
+        }
+}
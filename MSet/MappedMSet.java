@@ -0,0 +1,450 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+        A MappedMSet is a read-only view of an MSet snapshot file (see MSet.writeSnapshot), which is
+        mapped into memory rather than read onto the heap. Elements are only decoded when they are
+        iterated over; count and contains look elements up by their encodings. Since the mapping is
+        read-only, the same snapshot can be opened by many threads and processes at once. Operations
+        that would change the collection throw an UnsupportedOperationException.
+
+        A snapshot file is laid out as follows (all numbers are big-endian ints):
+
+            a header: the magic number 0x4D534554 ("MSET"), the version of the layout, the number of
+            elements (including duplicates), the number of unique elements and the size of the index;
+
+            an open-addressing hash index, whose entries are the offsets of records in the file (or
+            zero, for an empty entry), hashed on the encodings of their elements;
+
+            one record per unique element, made up of its count, the length of its encoding and its
+            encoding, in the same order as the table of the MSet (from the most copies to the fewest).
+
+        A snapshot is written to a temporary file beside its path, which is then moved over the path
+        in one step, so a process that has the previous snapshot at that path mapped keeps seeing the
+        whole of it (the file it mapped is never truncated) and a process that opens the path sees
+        either the previous snapshot or the new one, never part of one.
+
+        Opening a snapshot checks its header and its index, and throws an IOException if either is
+        corrupt. Records are only checked as they are read, so a corrupt record makes the method that
+        reads it (count, contains, iteration or toArray) throw an IndexOutOfBoundsException.
+*/
+
+public class MappedMSet extends Object implements Collection {
+
+        private ByteBuffer snapshot;
+        private MSetCodec codec;
+        private int numberOfElements;
+        private int numberOfUniqueElements;
+        private int sizeOfIndex;
+        private static final int magicNumber = 0x4D534554;
+        private static final int version = 1;
+        private static final int sizeOfHeader = 20;
+
+        /** Constructs a MappedMSet from the snapshot file at the specified path, whose elements were encoded
+                by the specified codec. */
+        public MappedMSet ( Path path, MSetCodec codec ) throws IOException {
+
+            if ( ( path == null ) || ( codec == null ) ) {
+                throw new NullPointerException();
+            }
+
+            try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+                /*
+                    A snapshot is mapped as a single buffer, so it cannot be larger than the largest buffer.
+                */
+                if ( ( channel.size() < sizeOfHeader ) || ( channel.size() > Integer.MAX_VALUE ) ) {
+                    throw new IOException( "not an MSet snapshot: " + path );
+                }
+
+                snapshot = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            }
+
+            if ( ( snapshot.getInt( 0 ) != magicNumber ) || ( snapshot.getInt( 4 ) != version ) ) {
+                throw new IOException( "not an MSet snapshot: " + path );
+            }
+
+            this.codec = codec;
+            numberOfElements = snapshot.getInt( 8 );
+            numberOfUniqueElements = snapshot.getInt( 12 );
+            sizeOfIndex = snapshot.getInt( 16 );
+            /*
+                Checks the header against the size of the file before anything relies on it. The index
+                must be a power of two larger than the number of unique elements, and it and the smallest
+                possible record of each unique element must fit in the file.
+            */
+            if ( ( numberOfUniqueElements < 0 ) || ( numberOfElements < numberOfUniqueElements )
+                    || ( sizeOfIndex < 2 ) || ( Integer.bitCount( sizeOfIndex ) != 1 ) || ( sizeOfIndex <= numberOfUniqueElements )
+                    || ( sizeOfHeader + ( sizeOfIndex * 4L ) + ( numberOfUniqueElements * 8L ) > snapshot.capacity() )
+                    || !isIndexValid() ) {
+                snapshot = null;
+                throw new IOException( "corrupt MSet snapshot: " + path );
+            }
+        }
+
+        /** Writes a snapshot of the specified MSet to the file at the specified path, encoding its elements
+                with the specified codec. */
+        static void write ( MSet bag, Path path, MSetCodec codec ) throws IOException {
+
+            if ( ( path == null ) || ( codec == null ) ) {
+                throw new NullPointerException();
+            }
+
+            int numberOfUniqueElements = bag.unique();
+            int sizeOfIndex = 2;
+            /*
+                The index is kept at most half full, so that lookups in the snapshot stay short.
+            */
+            while ( sizeOfIndex < ( numberOfUniqueElements * 2L ) ) {
+                sizeOfIndex *= 2;
+            }
+
+            byte[][] encodings = new byte[ numberOfUniqueElements ][];
+            int[] index = new int[ sizeOfIndex ];
+            long offset = sizeOfHeader + ( sizeOfIndex * 4L );
+            /*
+                Encodes each unique element, and places the offset of its record in the index.
+            */
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                encodings[ i - 1 ] = codec.encode( bag.get( i ) );
+
+                if ( offset + 8 + encodings[ i - 1 ].length > Integer.MAX_VALUE ) {
+                    throw new IOException( "MSet is too large for a snapshot" );
+                }
+
+                int bucket = hash( encodings[ i - 1 ] ) & ( sizeOfIndex - 1 );
+
+                while ( index[ bucket ] != 0 ) {
+                    bucket = ( bucket + 1 ) & ( sizeOfIndex - 1 );
+                }
+
+                index[ bucket ] = ( int ) offset;
+                offset += 8 + encodings[ i - 1 ].length;
+            }
+
+            Path directory = path.toAbsolutePath().getParent();
+            Path temporaryPath = directory.resolve( "." + path.getFileName() + "." + System.nanoTime() + ".tmp" );
+            boolean isMoved = false;
+
+            try {
+                try ( FileChannel channel = FileChannel.open( temporaryPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE ) ) {
+                    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( channel ), 1 << 16 ) );
+                    out.writeInt( magicNumber );
+                    out.writeInt( version );
+                    out.writeInt( bag.size() );
+                    out.writeInt( numberOfUniqueElements );
+                    out.writeInt( sizeOfIndex );
+
+                    for ( int i = 0; i < sizeOfIndex; i++ ) {
+                        out.writeInt( index[ i ] );
+                    }
+
+                    for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                        out.writeInt( bag.getCount( i ) );
+                        out.writeInt( encodings[ i - 1 ].length );
+                        out.write( encodings[ i - 1 ] );
+                    }
+                    /*
+                        The snapshot must be on disk before it replaces the previous one, so that a crash
+                        cannot leave an incomplete snapshot at the path.
+                    */
+                    out.flush();
+                    channel.force( true );
+                }
+
+                Files.move( temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+                isMoved = true;
+            }
+            finally {
+                /*
+                    A snapshot that was not written in full never replaces the previous one.
+                */
+                if ( !isMoved ) {
+                    Files.deleteIfExists( temporaryPath );
+                }
+            }
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean add ( Object o ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean addAll ( Collection c ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public void clear () {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Returns true if this collection contains the specified element. */
+        public boolean contains ( Object o ) {
+            return ( count( o ) > 0 );
+        }
+
+        /** Returns true if this collection contains all of the elements in the specified collection. */
+        public boolean containsAll ( Collection c ) {
+            boolean bagContainsElements = true;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+
+                    if ( !this.contains( o ) ) {
+                        bagContainsElements = false;
+                        break;
+                    }
+                }
+            }
+
+            return bagContainsElements;
+        }
+
+        /** Returns the number of copies of the specified element in this collection. Throws an
+                IndexOutOfBoundsException if the record of an element it compares runs past the end of the
+                file (i.e., the snapshot is corrupt). */
+        public int count ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                byte[] encoding = codec.encode( o );
+                int mask = sizeOfIndex - 1;
+                int bucket = hash( encoding ) & mask;
+                int record = snapshot.getInt( sizeOfHeader + ( bucket * 4 ) );
+                /*
+                    Follows the probe sequence of the encoding until either its record or an empty entry
+                    of the index is found. The index was checked to have an empty entry when the snapshot
+                    was opened, so this always ends.
+                */
+                while ( record != 0 ) {
+
+                    if ( isEncodingOf( record, encoding ) ) {
+                        return countOf( record );
+                    }
+
+                    bucket = ( bucket + 1 ) & mask;
+                    record = snapshot.getInt( sizeOfHeader + ( bucket * 4 ) );
+                }
+
+                return 0;
+            }
+        }
+
+        /** Returns true if this collection contains no elements. */
+        public boolean isEmpty () {
+            return ( numberOfElements == 0 );
+        }
+
+        /** Returns an iterator over the UNIQUE elements in this collection, from the most copies to the
+                fewest, decoding each one as it is returned. */
+        public Iterator iterator () {
+            return new MappedMSetIterator( this );
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean remove ( Object o ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean removeAll ( Collection c ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Throws an UnsupportedOperationException. */
+        public boolean retainAll ( Collection c ) {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Returns the number of elements in this collection, including duplicates. */
+        public int size () {
+            return numberOfElements;
+        }
+
+        /** Returns the number of UNIQUE elements in this collection (i.e., not including duplicates). */
+        public int unique () {
+            return numberOfUniqueElements;
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection. */
+        public Object[] toArray () {
+            Object[] uniqueElements = new Object[ numberOfUniqueElements ];
+            int record = firstRecord();
+
+            for ( int i = 0; i < numberOfUniqueElements; i++ ) {
+                uniqueElements[ i ] = elementOf( record );
+                record = nextRecord( record );
+            }
+
+            return uniqueElements;
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection, in the specified array
+                if it is large enough (in which case the position after the last element, if any, is set to
+                null), or else in a new array of the same runtime type. */
+        public Object[] toArray ( Object[] a ) {
+
+            if ( a == null ) {
+                throw new NullPointerException();
+            }
+            else if ( a.length < numberOfUniqueElements ) {
+                a = ( Object[] ) java.lang.reflect.Array.newInstance( a.getClass().getComponentType(), numberOfUniqueElements );
+            }
+            else if ( a.length > numberOfUniqueElements ) {
+                a[ numberOfUniqueElements ] = null;
+            }
+
+            int record = firstRecord();
+
+            for ( int i = 0; i < numberOfUniqueElements; i++ ) {
+                a[ i ] = elementOf( record );
+                record = nextRecord( record );
+            }
+
+            return a;
+        }
+
+        /*
+            Returns true if the index of the snapshot has exactly one entry per unique element, each the
+            offset of a record header that lies within the file, and an empty entry for every other
+            bucket. So there is always an empty entry to end a lookup (a lookup in an index without one
+            would never end), and every record that a lookup reaches starts within the file. This reads
+            the whole index once, in time proportional to its size.
+
+            The rest of each record (its encoding, and the length that leads to the next record) is only
+            checked as it is read, by the bounds checks of the buffer, so a record that runs past the end
+            of the file makes the method reading it throw an IndexOutOfBoundsException.
+        */
+        private boolean isIndexValid () {
+            int numberOfEmptyEntries = 0;
+
+            for ( int bucket = 0; bucket < sizeOfIndex; bucket++ ) {
+                int record = snapshot.getInt( sizeOfHeader + ( bucket * 4 ) );
+
+                if ( record == 0 ) {
+                    numberOfEmptyEntries += 1;
+                }
+                else if ( ( record < firstRecord() ) || ( record > snapshot.capacity() - 8 ) ) {
+                    return false;
+                }
+            }
+
+            return ( numberOfEmptyEntries == sizeOfIndex - numberOfUniqueElements );
+        }
+
+        /*
+            Returns the offset of the first record in the snapshot.
+        */
+        int firstRecord () {
+            return sizeOfHeader + ( sizeOfIndex * 4 );
+        }
+
+        /*
+            Returns the offset of the record that follows the specified record.
+        */
+        int nextRecord ( int record ) {
+            return record + 8 + snapshot.getInt( record + 4 );
+        }
+
+        /*
+            Returns the count of the element of the specified record.
+        */
+        int countOf ( int record ) {
+            return snapshot.getInt( record );
+        }
+
+        /*
+            Decodes the element of the specified record.
+        */
+        Object elementOf ( int record ) {
+            return codec.decode( snapshot, record + 8, snapshot.getInt( record + 4 ) );
+        }
+
+        /*
+            Returns true if the specified record holds the specified encoding.
+        */
+        private boolean isEncodingOf ( int record, byte[] encoding ) {
+
+            if ( snapshot.getInt( record + 4 ) != encoding.length ) {
+                return false;
+            }
+
+            for ( int i = 0; i < encoding.length; i++ ) {
+
+                if ( snapshot.get( record + 8 + i ) != encoding[ i ] ) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /*
+            Returns a hash of an encoding. It depends only on the bytes of the encoding, so it is the same
+            in every process that opens the snapshot.
+        */
+        private static int hash ( byte[] encoding ) {
+            int h = 0x811c9dc5;
+
+            for ( int i = 0; i < encoding.length; i++ ) {
+                h = ( h ^ ( encoding[ i ] & 0xff ) ) * 0x01000193;
+            }
+
+            h ^= ( h >>> 16 );
+            h *= 0x85ebca6b;
+            return ( h ^ ( h >>> 13 ) );
+        }
+}
+
+/*
+    An Iterator over the unique elements of a MappedMSet, which walks its records in order.
+*/
+class MappedMSetIterator implements Iterator {
+
+    private MappedMSet bag;
+    private int record;
+    private int numberOfElementsLeft;
+
+    public MappedMSetIterator ( MappedMSet bag ) {
+        this.bag = bag;
+        record = bag.firstRecord();
+        numberOfElementsLeft = bag.unique();
+    }
+
+    public boolean hasNext () {
+        return ( numberOfElementsLeft > 0 );
+    }
+
+    public Object next () {
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        Object o = bag.elementOf( record );
+        record = bag.nextRecord( record );
+        numberOfElementsLeft -= 1;
+        return o;
+    }
+
+    public void remove () {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,565 @@
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+/**
+        An OffHeapMSet is an unordered collection that allows duplicates, for bags too large to keep on
+        the heap. It has the same partitioned design as MSet, but every partition of its table is a
+        block of memory outside the heap, which holds the fixed-width encodings (see MSetKeyCodec) of
+        1024 UNIQUE elements followed by their 1024 counts. Each encoding is padded with zeros to a
+        multiple of eight bytes, so that encodings are hashed and compared eight aligned bytes at a
+        time. Its hash index lives outside the heap as well, and elements are hashed and compared by
+        their encodings, so they are only decoded onto the heap when they are iterated over.
+
+        The memory is allocated through an OffHeapMemory, as native memory segments if the incubator
+        module jdk.incubator.foreign is present, or else as direct buffers (in which case the index is
+        limited by the largest buffer, to 2^28 buckets). Either way, it is limited by
+        -XX:MaxDirectMemorySize rather than by -Xmx. The memory of a partition is freed as soon as the
+        partition is no longer needed.
+
+        An OffHeapMSet must be closed once it is no longer needed, which frees all of its native memory
+        at once; after that, every operation on it throws an IllegalStateException. The memory of an
+        OffHeapMSet that becomes unreachable without having been closed is freed some time after the
+        garbage collector notices, as a last resort.
+*/
+
+public class OffHeapMSet extends Object implements Iterable, AutoCloseable {
+
+        private MSetKeyCodec codec;
+        private int widthOfKey;
+        private int strideOfKey;
+        private long offsetOfCounts;
+        private byte[] keyBytes;
+        private ByteBuffer key;
+        private byte[] recordBytes;
+        private ByteBuffer record;
+        private OffHeapMemory memory;
+        private Cleaner.Cleanable cleanable;
+        private Object keyBlock;
+        private Object[] elements;
+        private Object index;
+        private int sizeOfIndex;
+        private int maximumSizeOfIndex;
+        private int numberOfElements;
+        private int numberOfUniqueElements;
+        private boolean closed;
+        private static final Cleaner cleaner = Cleaner.create();
+        private static final int sizeOfPartition = 1024;
+        private static final int numberOfPartitions = ( int ) Math.ceil( ( double ) Integer.MAX_VALUE / sizeOfPartition );
+        private static final int initialNumberOfPartitions = 1;
+        private static final int initialSizeOfIndex = 1024;
+        private static final int maximumWidthOfKey = ( Integer.MAX_VALUE / sizeOfPartition ) - 16;
+
+        /** Constructs an OffHeapMSet with no elements, whose elements are encoded by the specified codec. */
+        public OffHeapMSet ( MSetKeyCodec codec ) {
+
+            if ( codec == null ) {
+                throw new NullPointerException();
+            }
+            /*
+                A partition must fit in a direct buffer, so every offset within it fits in an int.
+            */
+            else if ( ( codec.width() <= 0 ) || ( codec.width() > maximumWidthOfKey ) ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                this.codec = codec;
+                widthOfKey = codec.width();
+                strideOfKey = ( widthOfKey + 7 ) & ~7;
+                offsetOfCounts = ( long ) sizeOfPartition * strideOfKey;
+                /*
+                    The codec encodes elements into, and decodes them from, buffers on the heap, whose bytes
+                    are copied to and from native memory.
+                */
+                keyBytes = new byte[ widthOfKey ];
+                key = ByteBuffer.wrap( keyBytes ).order( ByteOrder.nativeOrder() );
+                recordBytes = new byte[ widthOfKey ];
+                record = ByteBuffer.wrap( recordBytes ).order( ByteOrder.nativeOrder() );
+                memory = OffHeapMemory.kind.newMemory();
+                cleanable = cleaner.register( this, memory );
+                keyBlock = memory.allocate( strideOfKey );
+                elements = new Object[ initialNumberOfPartitions ];
+                index = memory.allocate( initialSizeOfIndex * 4L );
+                sizeOfIndex = initialSizeOfIndex;
+                maximumSizeOfIndex = Integer.highestOneBit( ( int ) Math.min( memory.maximumSizeOfBlock() / 4, 1 << 30 ) );
+                numberOfElements = 0;
+                numberOfUniqueElements = 0;
+                closed = false;
+            }
+        }
+
+        /** Adds a copy of the specified element to this OffHeapMSet.
+            Returns true if this OffHeapMSet changed IN ANY WAY as a result of the call. */
+        public boolean add ( Object o ) {
+            boolean bagChanged = true;
+            encodeKey( o );
+
+            if ( numberOfElements >= Integer.MAX_VALUE ) {
+                throw new IllegalStateException();
+            }
+            else {
+                int hash = hashOfKey( keyBlock, 0 );
+                int bucket = findBucket( hash );
+                int slot = getBucket( bucket );
+
+                if ( slot != 0 ) {
+                    setCount( slot, getCount( slot ) + 1 );
+                }
+                else {
+                    /*
+                        Grows the index before it becomes three quarters full. Once the index has reached
+                        its largest size, no further unique elements can be added.
+                    */
+                    if ( ( numberOfUniqueElements + 1 ) * 4L >= sizeOfIndex * 3L ) {
+
+                        if ( sizeOfIndex == maximumSizeOfIndex ) {
+                            throw new IllegalStateException();
+                        }
+
+                        resizeIndex( sizeOfIndex * 2 );
+                        bucket = findBucket( hash );
+                    }
+
+                    setBucket( bucket, appendUniqueElement() );
+                }
+
+                numberOfElements += 1;
+            }
+
+            return bagChanged;
+        }
+
+        /** Removes all of the elements from this OffHeapMSet, freeing the memory that held them. */
+        public void clear () {
+            checkOpen();
+            memory.run();
+            keyBlock = memory.allocate( strideOfKey );
+            elements = new Object[ initialNumberOfPartitions ];
+            index = memory.allocate( initialSizeOfIndex * 4L );
+            sizeOfIndex = initialSizeOfIndex;
+            numberOfElements = 0;
+            numberOfUniqueElements = 0;
+        }
+
+        /** Frees all of the memory of this OffHeapMSet, which can no longer be used afterwards.
+                Closing an OffHeapMSet that is already closed has no effect. */
+        public void close () {
+
+            if ( !closed ) {
+                cleanable.clean();
+                elements = null;
+                index = null;
+                keyBlock = null;
+                numberOfElements = 0;
+                numberOfUniqueElements = 0;
+                closed = true;
+            }
+        }
+
+        /** Returns true if this OffHeapMSet contains the specified element. */
+        public boolean contains ( Object o ) {
+            encodeKey( o );
+            return ( getBucket( findBucket( hashOfKey( keyBlock, 0 ) ) ) != 0 );
+        }
+
+        /** Returns the number of copies of the specified element in this OffHeapMSet. */
+        public int count ( Object o ) {
+            encodeKey( o );
+            int slot = getBucket( findBucket( hashOfKey( keyBlock, 0 ) ) );
+
+            if ( slot == 0 ) {
+                return 0;
+            }
+            else {
+                return getCount( slot );
+            }
+        }
+
+        /** Returns true if this OffHeapMSet contains no elements. */
+        public boolean isEmpty () {
+            checkOpen();
+            return ( numberOfElements == 0 );
+        }
+
+        /** Returns an iterator over the UNIQUE elements in this OffHeapMSet, decoding each one as it is
+                returned. There are no guarantees concerning the order in which the elements are returned. */
+        public Iterator iterator () {
+            checkOpen();
+            return new OffHeapMSetIterator( this );
+        }
+
+        /** Removes all copies of the specified element from this OffHeapMSet. */
+        public boolean remove ( Object o ) {
+            boolean bagChanged = false;
+            encodeKey( o );
+            int bucket = findBucket( hashOfKey( keyBlock, 0 ) );
+            int slot = getBucket( bucket );
+
+            if ( slot != 0 ) {
+                numberOfElements -= getCount( slot );
+                removeBucket( bucket );
+                removeUniqueElement( slot );
+                bagChanged = true;
+            }
+
+            return bagChanged;
+        }
+
+        /** Decrements the number of copies of o in this OffHeapMSet. Returns true iff this OffHeapMSet
+                changed as a result of the operation. */
+        public boolean reduce ( Object o ) {
+            boolean bagChanged = false;
+            encodeKey( o );
+            int bucket = findBucket( hashOfKey( keyBlock, 0 ) );
+            int slot = getBucket( bucket );
+
+            if ( slot != 0 ) {
+                setCount( slot, getCount( slot ) - 1 );
+
+                if ( getCount( slot ) == 0 ) {
+                    removeBucket( bucket );
+                    removeUniqueElement( slot );
+                }
+
+                numberOfElements -= 1;
+                bagChanged = true;
+            }
+
+            return bagChanged;
+        }
+
+        /** Returns the number of elements in this OffHeapMSet, including duplicates. */
+        public int size () {
+            checkOpen();
+            return numberOfElements;
+        }
+
+        /** Returns the number of UNIQUE elements in this OffHeapMSet (i.e., not including duplicates). */
+        public int unique () {
+            checkOpen();
+            return numberOfUniqueElements;
+        }
+
+        /*
+            Decodes the unique element at the specified position of the table.
+        */
+        Object get ( int slot ) {
+            checkOpen();
+            memory.copy( elements[ getRow( slot ) ], getOffsetOfKey( slot ), recordBytes, widthOfKey );
+            return codec.decode( record, 0 );
+        }
+
+        /*
+            Throws an IllegalStateException if this OffHeapMSet has been closed.
+        */
+        private void checkOpen () {
+
+            if ( closed ) {
+                throw new IllegalStateException();
+            }
+        }
+
+        /*
+            Encodes the specified element into the key buffer, and copies the encoding to the key block
+            (whose padding stays zero), where it is then hashed and compared against the elements of the
+            table.
+        */
+        private void encodeKey ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+
+            checkOpen();
+            codec.encode( o, key, 0 );
+            memory.copy( keyBytes, keyBlock, 0, widthOfKey );
+        }
+
+        /*
+            Returns the count of the unique element at the specified position of the table.
+        */
+        private int getCount ( int slot ) {
+            return memory.getInt( elements[ getRow( slot ) ], getOffsetOfCount( slot ) );
+        }
+
+        /*
+            Changes the count of the unique element at the specified position of the table.
+        */
+        private void setCount ( int slot, int count ) {
+            memory.putInt( elements[ getRow( slot ) ], getOffsetOfCount( slot ), count );
+        }
+
+        /*
+            Places the element in the key buffer in the next free position of the table with a count of
+            one, and returns that position.
+        */
+        private int appendUniqueElement () {
+            int slot = numberOfUniqueElements + 1;
+            /*
+                Adds a new partition to the next row of the table if the current row of the table is full
+                (or if the table has no rows yet).
+            */
+            if ( getColumn( slot ) == 0 ) {
+                addPartition( getRow( slot ) );
+            }
+
+            numberOfUniqueElements = slot;
+            memory.copy( keyBlock, 0, elements[ getRow( slot ) ], getOffsetOfKey( slot ), strideOfKey );
+            setCount( slot, 1 );
+            return slot;
+        }
+
+        /*
+            Removes the unique element at the specified position of the table by copying the encoding and
+            count of the last unique element into the vacated position.
+        */
+        private void removeUniqueElement ( int slot ) {
+            int last = numberOfUniqueElements;
+
+            if ( slot != last ) {
+                Object lastPartition = elements[ getRow( last ) ];
+                memory.copy( lastPartition, getOffsetOfKey( last ), elements[ getRow( slot ) ], getOffsetOfKey( slot ), strideOfKey );
+                setCount( slot, getCount( last ) );
+                setBucket( findSlot( hashOfKey( lastPartition, getOffsetOfKey( last ) ), last ), slot );
+            }
+
+            setCount( last, 0 );
+
+            if ( getColumn( last ) == 0 ) {
+                removePartition( getRow( last ) );
+            }
+
+            numberOfUniqueElements -= 1;
+        }
+
+        /*
+            Adds a new partition to the specified row of the table, growing the directory of partitions
+            if it has no room for the row.
+        */
+        private void addPartition ( int row ) {
+
+            if ( row >= elements.length ) {
+                resizeDirectory( Math.min( Math.max( elements.length * 2, row + 1 ), numberOfPartitions ) );
+            }
+
+            elements[ row ] = memory.allocate( offsetOfCounts + ( sizeOfPartition * 4L ) );
+        }
+
+        /*
+            Frees the partition in the specified row of the table, which must be the last row in use,
+            shrinking the directory of partitions once no more than a quarter of it is in use.
+        */
+        private void removePartition ( int row ) {
+            memory.free( elements[ row ] );
+            elements[ row ] = null;
+
+            if ( ( elements.length > initialNumberOfPartitions ) && ( row * 4 <= elements.length ) ) {
+                resizeDirectory( Math.max( elements.length / 2, initialNumberOfPartitions ) );
+            }
+        }
+
+        /*
+            Copies the rows of the table into a directory of partitions of the specified size.
+        */
+        private void resizeDirectory ( int size ) {
+            Object[] newElements = new Object[ size ];
+            System.arraycopy( elements, 0, newElements, 0, Math.min( elements.length, size ) );
+            elements = newElements;
+        }
+
+        /*
+            Returns the bucket of the index that either refers to the element in the key buffer or, if the
+            element is not in the table, is the empty bucket where a reference to it belongs.
+        */
+        private int findBucket ( int hash ) {
+            int mask = sizeOfIndex - 1;
+            int bucket = hash & mask;
+
+            while ( ( getBucket( bucket ) != 0 ) && !isKey( getBucket( bucket ) ) ) {
+                bucket = ( bucket + 1 ) & mask;
+            }
+
+            return bucket;
+        }
+
+        /*
+            Returns the bucket of the index that refers to the specified position of the table, whose
+            element has the specified hash.
+        */
+        private int findSlot ( int hash, int slot ) {
+            int mask = sizeOfIndex - 1;
+            int bucket = hash & mask;
+
+            while ( getBucket( bucket ) != slot ) {
+                bucket = ( bucket + 1 ) & mask;
+            }
+
+            return bucket;
+        }
+
+        /*
+            Empties the specified bucket of the index, shifting entries further along the same probe
+            sequence back into the gap.
+        */
+        private void removeBucket ( int bucket ) {
+            int mask = sizeOfIndex - 1;
+            int gap = bucket;
+            int next = ( bucket + 1 ) & mask;
+
+            while ( getBucket( next ) != 0 ) {
+                int slot = getBucket( next );
+                int home = hashOfKey( elements[ getRow( slot ) ], getOffsetOfKey( slot ) ) & mask;
+
+                if ( ( ( next - home ) & mask ) >= ( ( next - gap ) & mask ) ) {
+                    setBucket( gap, slot );
+                    gap = next;
+                }
+
+                next = ( next + 1 ) & mask;
+            }
+
+            setBucket( gap, 0 );
+        }
+
+        /*
+            Rebuilds the index with the specified number of buckets, which must be a power of two. The new
+            index is allocated before the old one is freed, so if there is no memory for it, the
+            OutOfMemoryError is passed on with this OffHeapMSet unchanged.
+        */
+        private void resizeIndex ( int size ) {
+            Object newIndex = memory.allocate( size * 4L );
+            memory.free( index );
+            index = newIndex;
+            sizeOfIndex = size;
+            rebuildIndex();
+        }
+
+        /*
+            Fills the (empty) index with a reference to every position of the table.
+        */
+        private void rebuildIndex () {
+            int mask = sizeOfIndex - 1;
+
+            for ( int i = 1; i <= numberOfUniqueElements; i++ ) {
+                int bucket = hashOfKey( elements[ getRow( i ) ], getOffsetOfKey( i ) ) & mask;
+
+                while ( getBucket( bucket ) != 0 ) {
+                    bucket = ( bucket + 1 ) & mask;
+                }
+
+                setBucket( bucket, i );
+            }
+        }
+
+        /*
+            Returns the position of the table referred to by the specified bucket of the index, or zero if
+            the bucket is empty.
+        */
+        private int getBucket ( int bucket ) {
+            return memory.getInt( index, bucket * 4L );
+        }
+
+        /*
+            Makes the specified bucket of the index refer to the specified position of the table.
+        */
+        private void setBucket ( int bucket, int slot ) {
+            memory.putInt( index, bucket * 4L, slot );
+        }
+
+        /*
+            Returns true if the element at the specified position of the table has the same encoding as
+            the element in the key block. Both encodings are padded with zeros to the same multiple of
+            eight bytes, so they are compared eight bytes at a time, padding and all.
+        */
+        private boolean isKey ( int slot ) {
+            Object partition = elements[ getRow( slot ) ];
+            long offset = getOffsetOfKey( slot );
+
+            for ( int i = 0; i < strideOfKey; i += 8 ) {
+
+                if ( memory.getLong( partition, offset + i ) != memory.getLong( keyBlock, i ) ) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /*
+            Returns a well-mixed hash of the (padded) encoding at the specified offset of a block.
+        */
+        private int hashOfKey ( Object block, long offset ) {
+            long h = 0x9e3779b97f4a7c15L ^ widthOfKey;
+
+            for ( int i = 0; i < strideOfKey; i += 8 ) {
+                h = ( h ^ memory.getLong( block, offset + i ) ) * 0xbf58476d1ce4e5b9L;
+                h ^= ( h >>> 31 );
+            }
+
+            h ^= ( h >>> 29 );
+            return ( int ) ( h ^ ( h >>> 32 ) );
+        }
+
+        /*
+            Returns the offset of the encoding of an element within its partition.
+        */
+        private long getOffsetOfKey ( int n ) {
+            return ( long ) getColumn( n ) * strideOfKey;
+        }
+
+        /*
+            Returns the offset of the count of an element within its partition.
+        */
+        private long getOffsetOfCount ( int n ) {
+            return offsetOfCounts + ( getColumn( n ) * 4L );
+        }
+
+        /*
+            Returns the row of an element in the elements table.
+        */
+        private static int getRow ( int n ) {
+            return ( ( n - 1 ) / sizeOfPartition );
+        }
+
+        /*
+            Returns the column of an element in the elements table.
+        */
+        private static int getColumn ( int n ) {
+            return ( ( n - 1 ) % sizeOfPartition );
+        }
+}
+
+/*
+    An Iterator over the unique elements of an OffHeapMSet.
+*/
+class OffHeapMSetIterator implements Iterator {
+
+    private OffHeapMSet bag;
+    private int numberOfUniqueElements;
+    private int slot;
+
+    public OffHeapMSetIterator ( OffHeapMSet bag ) {
+        this.bag = bag;
+        numberOfUniqueElements = bag.unique();
+        slot = 0;
+    }
+
+    public boolean hasNext () {
+        return ( slot < numberOfUniqueElements );
+    }
+
+    public Object next () {
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        slot += 1;
+        return bag.get( slot );
+    }
+
+    public void remove () {
+        throw new UnsupportedOperationException();
+    }
+}
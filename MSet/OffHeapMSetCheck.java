@@ -0,0 +1,88 @@
+import java.util.Iterator;
+
+/**
+        OffHeapMSetCheck checks that an OffHeapMSet can hold more than the heap: it adds the specified
+        number of unique Long elements (each of them twice, and every tenth one a third time) to an
+        OffHeapMSet, checks that the memory it holds outside the heap is larger than the largest
+        possible heap, and then checks count, contains, reduce, remove, unique, size and iteration
+        against the counts that the elements should have. Finally, it closes the OffHeapMSet and checks
+        that all of its memory has been freed.
+
+        It prints the kind of memory, the time taken and the memory held, and exits with a status of 1
+        if any check fails (see MSetChecks).
+
+        Usage: java -Xmx64m -XX:MaxDirectMemorySize=1g --add-modules jdk.incubator.foreign OffHeapMSetCheck [size]
+        The number of unique elements defaults to 20000000, which takes about 400 MB of memory.
+*/
+
+public class OffHeapMSetCheck extends Object {
+
+        private static final int defaultSize = 20000000;
+
+        public static void main ( String[] args ) {
+            int size = ( ( args.length > 0 ) ? Integer.parseInt( args[ 0 ] ) : defaultSize );
+            long maximumHeap = Runtime.getRuntime().maxMemory();
+            MSetChecks checks = new MSetChecks();
+            OffHeapMSet bag = new OffHeapMSet( MSetKeyCodec.LONG );
+            long start = System.nanoTime();
+
+            for ( int copy = 0; copy < 2; copy++ ) {
+
+                for ( long i = 0; i < size; i++ ) {
+                    bag.add( Long.valueOf( valueOf( i ) ) );
+                }
+            }
+
+            for ( long i = 0; i < size; i += 10 ) {
+                bag.add( Long.valueOf( valueOf( i ) ) );
+            }
+
+            long end = System.nanoTime();
+            long offHeapBytes = OffHeapMemory.totalBytes();
+            System.out.printf( "added %d elements (%d unique) in %.1f s%n", bag.size(), bag.unique(), ( end - start ) / 1e9 );
+            System.out.printf( "%s: %d MB, maximum heap %d MB%n", OffHeapMemory.kind.name(), offHeapBytes >> 20, maximumHeap >> 20 );
+
+            checks.check( "memory off the heap exceeds the heap", offHeapBytes > maximumHeap );
+            checks.check( "unique", bag.unique() == size );
+            checks.check( "size", bag.size() == ( 2L * size ) + ( ( size + 9 ) / 10 ) );
+
+            for ( long i = 0; i < size; i += 997 ) {
+                Long o = Long.valueOf( valueOf( i ) );
+
+                if ( bag.count( o ) != ( ( i % 10 == 0 ) ? 3 : 2 ) ) {
+                    checks.check( "count of " + o, false );
+                }
+            }
+
+            checks.check( "contains an element that was never added", !bag.contains( Long.valueOf( valueOf( size ) ) ) );
+
+            Long first = Long.valueOf( valueOf( 1 ) );
+            Long second = Long.valueOf( valueOf( 2 ) );
+            bag.reduce( first );
+            checks.check( "reduce", bag.count( first ) == 1 );
+            bag.reduce( first );
+            checks.check( "reduce to zero", !bag.contains( first ) && ( bag.unique() == size - 1 ) );
+            bag.remove( second );
+            checks.check( "remove", !bag.contains( second ) && ( bag.unique() == size - 2 ) );
+
+            long numberOfElements = 0;
+
+            for ( Iterator it = bag.iterator(); it.hasNext(); ) {
+                numberOfElements += bag.count( it.next() );
+            }
+
+            checks.check( "iteration", numberOfElements == bag.size() );
+
+            bag.close();
+            checks.check( "close frees all of its memory", OffHeapMemory.totalBytes() == 0 );
+            bag.close();
+            checks.exitIfFailed();
+        }
+
+        /*
+            Returns a distinct, scattered value for each index, so that the elements do not arrive in order.
+        */
+        private static long valueOf ( long i ) {
+            return ( i * 0x9e3779b97f4a7c15L ) ^ 0x5555555555555555L;
+        }
+}
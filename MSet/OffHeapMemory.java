@@ -0,0 +1,203 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+        An OffHeapMemory allocates blocks of memory outside the heap for one OffHeapMSet, and frees them
+        again, either one at a time or all at once. A block is an opaque object that is only read and
+        written through the methods of the OffHeapMemory that allocated it, by offset. Every block is
+        aligned to eight bytes and is read and written in the native byte order.
+
+        This class allocates each block as a direct ByteBuffer, whose memory is only returned to the
+        operating system once the garbage collector finds the buffer unreachable, so freeing a block
+        only lets go of it. A block can be no larger than the largest buffer (2 GB).
+
+        Its subclass OffHeapSegmentMemory allocates each block as a native MemorySegment instead
+        (jdk.incubator.foreign), which may be larger than 2 GB, and whose memory is returned to the
+        operating system as soon as the block is freed. Either way, the memory counts against
+        -XX:MaxDirectMemorySize (which defaults to the size of the heap), so that limit must be raised
+        for the blocks to hold more than the heap can. The foreign memory API is an incubator module,
+        so OffHeapSegmentMemory is kept in a source file of its own, which is compiled (and run) with
+        the module added, while every other class compiles without it:
+
+            javac --add-modules jdk.incubator.foreign OffHeapSegmentMemory.java
+            java --add-modules jdk.incubator.foreign ...
+
+        The kind of memory is chosen once, when this class is loaded: OffHeapSegmentMemory if it can be
+        loaded, or else this class. Setting the system property OffHeapMemory.buffers to true always
+        chooses this class.
+*/
+
+class OffHeapMemory implements Runnable {
+
+        private static final AtomicLong totalBytes = new AtomicLong();
+        /** An OffHeapMemory of the kind that every OffHeapMSet uses, which makes the others. */
+        static final OffHeapMemory kind = choose();
+        private Object[] blocks;
+        private long[] sizes;
+        private int numberOfBlocks;
+
+        /** Constructs an OffHeapMemory that has not yet allocated any blocks. */
+        OffHeapMemory () {
+            blocks = new Object[ 16 ];
+            sizes = new long[ 16 ];
+            numberOfBlocks = 0;
+        }
+
+        /*
+            Returns a new OffHeapMemory of the same kind as this one, which has not yet allocated any blocks.
+        */
+        OffHeapMemory newMemory () {
+            return new OffHeapMemory();
+        }
+
+        /*
+            Returns the name of this kind of memory.
+        */
+        String name () {
+            return "direct buffers";
+        }
+
+        /*
+            Returns the largest number of bytes that a block may hold.
+        */
+        long maximumSizeOfBlock () {
+            return Integer.MAX_VALUE - 7;
+        }
+
+        /*
+            Returns the number of bytes held by the blocks that every OffHeapMemory has allocated and not
+            yet freed.
+        */
+        static long totalBytes () {
+            return totalBytes.get();
+        }
+
+        /*
+            Allocates a block of the specified number of bytes, all of them zero, and returns it. Throws an
+            OutOfMemoryError if there is no memory to spare.
+        */
+        final Object allocate ( long size ) {
+
+            if ( ( size < 0 ) || ( size > maximumSizeOfBlock() ) ) {
+                throw new IllegalArgumentException();
+            }
+
+            Object block = allocateBlock( size );
+
+            if ( numberOfBlocks == blocks.length ) {
+                blocks = java.util.Arrays.copyOf( blocks, numberOfBlocks * 2 );
+                sizes = java.util.Arrays.copyOf( sizes, numberOfBlocks * 2 );
+            }
+
+            blocks[ numberOfBlocks ] = block;
+            sizes[ numberOfBlocks ] = size;
+            numberOfBlocks += 1;
+            totalBytes.addAndGet( size );
+            return block;
+        }
+
+        /*
+            Frees the specified block, which must have been allocated by this OffHeapMemory. The blocks are
+            searched from the most recently allocated, so freeing blocks in the reverse of the order in
+            which they were allocated takes constant time.
+        */
+        final void free ( Object block ) {
+            int i = numberOfBlocks - 1;
+
+            while ( blocks[ i ] != block ) {
+                i -= 1;
+            }
+
+            freeBlock( block );
+            totalBytes.addAndGet( -sizes[ i ] );
+            numberOfBlocks -= 1;
+            blocks[ i ] = blocks[ numberOfBlocks ];
+            sizes[ i ] = sizes[ numberOfBlocks ];
+            blocks[ numberOfBlocks ] = null;
+        }
+
+        /*
+            Frees every block that this OffHeapMemory has allocated. This is also the action that runs
+            once the OffHeapMSet that owns this OffHeapMemory becomes unreachable without having been
+            closed.
+        */
+        public final void run () {
+
+            while ( numberOfBlocks > 0 ) {
+                numberOfBlocks -= 1;
+                freeBlock( blocks[ numberOfBlocks ] );
+                totalBytes.addAndGet( -sizes[ numberOfBlocks ] );
+                blocks[ numberOfBlocks ] = null;
+            }
+        }
+
+        /*
+            Allocates a direct buffer of the specified size (and a little more, so that it can be aligned).
+            The memory of a direct buffer is zeroed when it is allocated.
+        */
+        Object allocateBlock ( long size ) {
+            return ByteBuffer.allocateDirect( ( int ) size + 7 ).alignedSlice( 8 ).order( ByteOrder.nativeOrder() );
+        }
+
+        /*
+            Lets go of a direct buffer, whose memory the garbage collector frees once it is unreachable.
+        */
+        void freeBlock ( Object block ) {
+        }
+
+        int getInt ( Object block, long offset ) {
+            return ( ( ByteBuffer ) block ).getInt( ( int ) offset );
+        }
+
+        void putInt ( Object block, long offset, int value ) {
+            ( ( ByteBuffer ) block ).putInt( ( int ) offset, value );
+        }
+
+        long getLong ( Object block, long offset ) {
+            return ( ( ByteBuffer ) block ).getLong( ( int ) offset );
+        }
+
+        /*
+            Copies the specified number of bytes from one offset of a block to an offset of another (or
+            the same) block. The two ranges must not overlap.
+        */
+        void copy ( Object from, long fromOffset, Object to, long toOffset, long size ) {
+            ( ( ByteBuffer ) to ).put( ( int ) toOffset, ( ByteBuffer ) from, ( int ) fromOffset, ( int ) size );
+        }
+
+        /*
+            Copies the specified number of bytes from the start of an array to an offset of a block.
+        */
+        void copy ( byte[] from, Object to, long toOffset, int size ) {
+            ( ( ByteBuffer ) to ).put( ( int ) toOffset, from, 0, size );
+        }
+
+        /*
+            Copies the specified number of bytes from an offset of a block to the start of an array.
+        */
+        void copy ( Object from, long fromOffset, byte[] to, int size ) {
+            ( ( ByteBuffer ) from ).get( ( int ) fromOffset, to, 0, size );
+        }
+
+        /*
+            Returns an OffHeapSegmentMemory if one can be loaded and used, or else an OffHeapMemory. Loading
+            or first using it (which is when the classes of the module are loaded) fails with a
+            LinkageError (e.g., a NoClassDefFoundError) if the class or the incubator module is missing.
+        */
+        private static OffHeapMemory choose () {
+
+            if ( Boolean.getBoolean( "OffHeapMemory.buffers" ) ) {
+                return new OffHeapMemory();
+            }
+
+            try {
+                OffHeapMemory memory = ( OffHeapMemory ) Class.forName( "OffHeapSegmentMemory" ).getDeclaredConstructor().newInstance();
+                memory.free( memory.allocate( 8 ) );
+                return memory;
+            }
+            catch ( ReflectiveOperationException | LinkageError e ) {
+                return new OffHeapMemory();
+            }
+        }
+}
@@ -0,0 +1,62 @@
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+        An OffHeapSegmentMemory is an OffHeapMemory whose blocks are native MemorySegments. Each block
+        has a shared ResourceScope of its own, so that it can be freed on its own, from any thread, and
+        every read and write of it is checked against its bounds and against the scope having been
+        closed, so a block that has been freed can no longer be read.
+
+        This class needs the incubator module jdk.incubator.foreign to compile and to run (see
+        OffHeapMemory); no other class refers to it by name.
+*/
+
+class OffHeapSegmentMemory extends OffHeapMemory {
+
+        OffHeapMemory newMemory () {
+            return new OffHeapSegmentMemory();
+        }
+
+        String name () {
+            return "memory segments";
+        }
+
+        long maximumSizeOfBlock () {
+            return Long.MAX_VALUE;
+        }
+
+        Object allocateBlock ( long size ) {
+            MemorySegment block = MemorySegment.allocateNative( size, 8, ResourceScope.newSharedScope() );
+            block.fill( ( byte ) 0 );
+            return block;
+        }
+
+        void freeBlock ( Object block ) {
+            ( ( MemorySegment ) block ).scope().close();
+        }
+
+        int getInt ( Object block, long offset ) {
+            return MemoryAccess.getIntAtOffset( ( MemorySegment ) block, offset );
+        }
+
+        void putInt ( Object block, long offset, int value ) {
+            MemoryAccess.setIntAtOffset( ( MemorySegment ) block, offset, value );
+        }
+
+        long getLong ( Object block, long offset ) {
+            return MemoryAccess.getLongAtOffset( ( MemorySegment ) block, offset );
+        }
+
+        void copy ( Object from, long fromOffset, Object to, long toOffset, long size ) {
+            ( ( MemorySegment ) to ).asSlice( toOffset, size ).copyFrom( ( ( MemorySegment ) from ).asSlice( fromOffset, size ) );
+        }
+
+        void copy ( byte[] from, Object to, long toOffset, int size ) {
+            ( ( MemorySegment ) to ).asSlice( toOffset, size ).copyFrom( MemorySegment.ofArray( from ).asSlice( 0, size ) );
+        }
+
+        void copy ( Object from, long fromOffset, byte[] to, int size ) {
+            MemorySegment.ofArray( to ).asSlice( 0, size ).copyFrom( ( ( MemorySegment ) from ).asSlice( fromOffset, size ) );
+        }
+}
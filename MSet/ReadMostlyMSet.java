@@ -0,0 +1,295 @@
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ToIntFunction;
+
+/**
+        A ReadMostlyMSet is an MSet that may be shared by many threads that mostly read it (count,
+        contains, size, iteration, etc.) and a few that occasionally change it. It guards an ordinary
+        MSet with a StampedLock:
+
+            a change takes the write lock, so changes are made one at a time;
+
+            a query first reads the MSet without taking any lock, and then checks that no change began
+            in the meantime. Only if one did (or if the query tripped over a change in progress) is the
+            query repeated under the read lock. Readers therefore never write to shared memory in the
+            common case, and do not block one another or slow each other down.
+
+        Iterators, toArray and toString run over a snapshot (see MSet.snapshot), so they are consistent,
+        never throw a ConcurrentModificationException and (for iterators) do not support remove. Taking
+        a snapshot flags the partitions and index of the MSet as shared, so it is done under the write
+        lock, and the same snapshot is handed to every caller until the next change. The first change
+        after a snapshot copies the partition and chunks of the index that it touches.
+*/
+
+public class ReadMostlyMSet extends Object implements Collection {
+
+        private final MSet bag;
+        private final StampedLock lock;
+        private volatile MSet currentSnapshot;
+
+        /** Constructs a ReadMostlyMSet with no elements. */
+        public ReadMostlyMSet () {
+            bag = new MSet();
+            lock = new StampedLock();
+        }
+
+        /** Constructs a ReadMostlyMSet from the given collection. */
+        public ReadMostlyMSet ( Collection c ) {
+            bag = new MSet( c );
+            lock = new StampedLock();
+        }
+
+        /** Ensures that this collection contains the specified element.
+            Returns true if this collection changed IN ANY WAY as a result of the call. */
+        public boolean add ( Object o ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.add( o );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Adds the specified (non-negative) number of copies of an element to this collection. Returns true
+                iff this collection changed as a result of the operation. */
+        public boolean add ( Object o, int copies ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.add( o, copies );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Adds all of the elements in the specified collection to this collection. */
+        public boolean addAll ( Collection c ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.addAll( c );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Removes all of the elements from this collection. */
+        public void clear () {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                bag.clear();
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Returns true if this collection contains the specified element. */
+        public boolean contains ( Object o ) {
+            return ( read( bag -> ( bag.contains( o ) ? 1 : 0 ) ) == 1 );
+        }
+
+        /** Returns true if this collection contains all of the elements in the specified collection. */
+        public boolean containsAll ( Collection c ) {
+            return ( read( bag -> ( bag.containsAll( c ) ? 1 : 0 ) ) == 1 );
+        }
+
+        /** Returns the number of copies of the specified element in this collection. */
+        public int count ( Object o ) {
+            return read( bag -> bag.count( o ) );
+        }
+
+        /** Returns true if this collection contains no elements. */
+        public boolean isEmpty () {
+            return ( read( bag -> bag.size() ) == 0 );
+        }
+
+        /** Returns an iterator over the UNIQUE elements in this collection, as it was when the iterator was
+                created. */
+        public Iterator iterator () {
+            return snapshot().iterator();
+        }
+
+        /** Removes all instances of the specified element from this collection. */
+        public boolean remove ( Object o ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.remove( o );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Removes all of this collection's elements that are also contained in the specified collection. */
+        public boolean removeAll ( Collection c ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.removeAll( c );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Retains only the elements in this collection that are contained in the specified collection. */
+        public boolean retainAll ( Collection c ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.retainAll( c );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Decrements the number of copies of o in this collection. Returns true iff this collection
+                changed as a result of the operation. */
+        public boolean reduce ( Object o ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.reduce( o );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Removes the specified (non-negative) number of copies of an element from this collection, or all
+                of its copies if it has fewer. Returns true iff this collection changed as a result of the
+                operation. */
+        public boolean reduce ( Object o, int copies ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.reduce( o, copies );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Changes the number of copies of an element in this collection to the specified (non-negative)
+                count. Returns the number of copies it had before. */
+        public int setCount ( Object o, int count ) {
+            long stamp = lock.writeLock();
+
+            try {
+                currentSnapshot = null;
+                return bag.setCount( o, count );
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Returns the number of elements in this collection, including duplicates. */
+        public int size () {
+            return read( bag -> bag.size() );
+        }
+
+        /** Returns the number of UNIQUE elements in this collection (i.e., not including duplicates). */
+        public int unique () {
+            return read( bag -> bag.unique() );
+        }
+
+        /** Returns a read-only snapshot (see MSet.snapshot) of this collection, which stays consistent while
+                this collection goes on changing. Until this collection changes, every call returns the same
+                snapshot. */
+        public MSet snapshot () {
+            MSet snapshot = currentSnapshot;
+
+            if ( snapshot != null ) {
+                return snapshot;
+            }
+
+            long stamp = lock.writeLock();
+
+            try {
+
+                if ( currentSnapshot == null ) {
+                    currentSnapshot = bag.snapshot();
+                }
+
+                return currentSnapshot;
+            }
+            finally {
+                lock.unlockWrite( stamp );
+            }
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection. */
+        public Object[] toArray () {
+            return snapshot().toArray();
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection, in the specified array
+                if it is large enough, or else in a new array of the same runtime type. */
+        public Object[] toArray ( Object[] a ) {
+            return snapshot().toArray( a );
+        }
+
+        /*
+            Runs the specified query on the MSet, first without a lock and then, if a change was made while
+            it ran, under the read lock. A query that runs during a change may see the MSet in an
+            inconsistent state and fail (e.g., with an ArrayIndexOutOfBoundsException or a
+            NullPointerException), so a failure is only passed on if no change was made while the query
+            ran; otherwise the query is repeated under the read lock, where it either succeeds or fails for
+            a genuine reason.
+        */
+        private int read ( ToIntFunction<MSet> query ) {
+            long stamp = lock.tryOptimisticRead();
+
+            if ( stamp != 0 ) {
+
+                try {
+                    int result = query.applyAsInt( bag );
+
+                    if ( lock.validate( stamp ) ) {
+                        return result;
+                    }
+                }
+                catch ( RuntimeException e ) {
+
+                    if ( lock.validate( stamp ) ) {
+                        throw e;
+                    }
+                }
+            }
+
+            stamp = lock.readLock();
+
+            try {
+                return query.applyAsInt( bag );
+            }
+            finally {
+                lock.unlockRead( stamp );
+            }
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Returns a stringy representation of this ReadMostlyMSet. Overrides Object.toString(). */
+        public String toString () {
+            return snapshot().toString();
+        }
+}
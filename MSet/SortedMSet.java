@@ -0,0 +1,666 @@
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+        A SortedMSet is a collection that allows duplicates and keeps its elements in their natural
+        order, so that it can answer order queries (how many elements lie in a range, how many are
+        smaller than a value, which element lies at a given position) without looking at every
+        element. Its elements must be Comparable with one another.
+
+        Each UNIQUE element is stored once, with its count, in a node of an AVL tree. Every node also
+        records the total number of copies in its subtree, so that add, count, reduce, remove,
+        countInRange, rank and select each follow a single path from the root and run in O(log n)
+        time, where n is the number of unique elements.
+*/
+
+public class SortedMSet extends Object implements Collection {
+
+        private SortedMSetNode root;
+        private int numberOfElements;
+        private int numberOfUniqueElements;
+        private int numberOfModifications;
+
+        /** Constructs a SortedMSet with no elements. */
+        public SortedMSet () {
+            root = null;
+            numberOfElements = 0;
+            numberOfUniqueElements = 0;
+            numberOfModifications = 0;
+        }
+
+        /** Constructs a SortedMSet from the given collection. */
+        public SortedMSet ( Collection c ) {
+            this();
+            this.addAll( c );
+        }
+
+        /** Ensures that this collection contains the specified element.
+            Returns true if this collection changed IN ANY WAY as a result of the call. */
+        public boolean add ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else if ( numberOfElements >= Integer.MAX_VALUE ) {
+                throw new IllegalStateException();
+            }
+            else {
+                root = insert( root, ( Comparable ) o );
+                numberOfElements += 1;
+                numberOfModifications += 1;
+            }
+
+            return true;
+        }
+
+        /** Adds all of the elements in the specified collection to this collection. */
+        public boolean addAll ( Collection c ) {
+            boolean bagChanged = true;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+                    this.add( o );
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /** Removes all of the elements from this collection. */
+        public void clear () {
+            root = null;
+            numberOfElements = 0;
+            numberOfUniqueElements = 0;
+            numberOfModifications += 1;
+        }
+
+        /** Returns true if this collection contains the specified element. */
+        public boolean contains ( Object o ) {
+            return ( find( o ) != null );
+        }
+
+        /** Returns true if this collection contains all of the elements in the specified collection. */
+        public boolean containsAll ( Collection c ) {
+            boolean bagContainsElements = true;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+
+                    if ( !this.contains( o ) ) {
+                        bagContainsElements = false;
+                        break;
+                    }
+                }
+            }
+
+            return bagContainsElements;
+        }
+
+        /** Returns the number of copies of the specified element in this collection. */
+        public int count ( Object o ) {
+            SortedMSetNode node = find( o );
+            return ( ( node == null ) ? 0 : node.count );
+        }
+
+        /** Returns the number of elements in this collection, including duplicates, that lie between lo and
+                hi (inclusive). */
+        public int countInRange ( Object lo, Object hi ) {
+
+            if ( ( lo == null ) || ( hi == null ) ) {
+                throw new NullPointerException();
+            }
+            else if ( ( ( Comparable ) lo ).compareTo( hi ) > 0 ) {
+                return 0;
+            }
+            else {
+                return countAtMost( ( Comparable ) hi ) - rank( lo );
+            }
+        }
+
+        /** Returns the number of elements in this collection, including duplicates, that are less than the
+                specified element. */
+        public int rank ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                Comparable key = ( Comparable ) o;
+                SortedMSetNode node = root;
+                int numberOfSmallerElements = 0;
+                /*
+                    Whenever the path turns right, the node and its whole left subtree are smaller.
+                */
+                while ( node != null ) {
+
+                    if ( key.compareTo( node.element ) > 0 ) {
+                        numberOfSmallerElements += total( node.left ) + node.count;
+                        node = node.right;
+                    }
+                    else {
+                        node = node.left;
+                    }
+                }
+
+                return numberOfSmallerElements;
+            }
+        }
+
+        /** Returns the element at the specified position (from zero) of this collection in sorted order,
+                counting duplicates, e.g., select( size() / 2 ) is the median. */
+        public Object select ( int position ) {
+
+            if ( ( position < 0 ) || ( position >= numberOfElements ) ) {
+                throw new IndexOutOfBoundsException();
+            }
+            else {
+                SortedMSetNode node = root;
+
+                while ( true ) {
+                    int numberOfSmallerElements = total( node.left );
+
+                    if ( position < numberOfSmallerElements ) {
+                        node = node.left;
+                    }
+                    else if ( position < numberOfSmallerElements + node.count ) {
+                        return node.element;
+                    }
+                    else {
+                        position -= numberOfSmallerElements + node.count;
+                        node = node.right;
+                    }
+                }
+            }
+        }
+
+        /** Returns the element below which the specified fraction (between 0 and 1) of the elements of this
+                collection lie, e.g., percentile( 0.99 ) is the 99th percentile. */
+        public Object percentile ( double fraction ) {
+
+            if ( !( fraction >= 0.0 ) || !( fraction <= 1.0 ) ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                int position = ( int ) Math.ceil( fraction * numberOfElements ) - 1;
+                return select( Math.max( position, 0 ) );
+            }
+        }
+
+        /** Returns true if this collection contains no elements. */
+        public boolean isEmpty () {
+            return ( numberOfElements == 0 );
+        }
+
+        /** Returns an iterator over the UNIQUE elements in this collection, in ascending order. */
+        public Iterator iterator () {
+            return new SortedMSetIterator( this );
+        }
+
+        /** Removes all instances of the specified element from this collection. */
+        public boolean remove ( Object o ) {
+            SortedMSetNode node = find( o );
+
+            if ( node == null ) {
+                return false;
+            }
+            else {
+                numberOfElements -= node.count;
+                root = delete( root, node.element, node.count );
+                numberOfModifications += 1;
+                return true;
+            }
+        }
+
+        /** Removes all of this collection's elements that are also contained in the specified collection. */
+        public boolean removeAll ( Collection c ) {
+            boolean bagChanged = false;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+
+                for ( Object o : c ) {
+                    bagChanged |= this.remove( o );
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /** Retains only the elements in this collection that are contained in the specified collection. */
+        public boolean retainAll ( Collection c ) {
+            boolean bagChanged = false;
+
+            if ( c == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                Object[] uniqueElements = toArray();
+
+                for ( int i = 0; i < uniqueElements.length; i++ ) {
+
+                    if ( !c.contains( uniqueElements[ i ] ) ) {
+                        bagChanged |= this.remove( uniqueElements[ i ] );
+                    }
+                }
+            }
+
+            return bagChanged;
+        }
+
+        /** Decrements the number of copies of o in this collection. Returns true iff this collection
+                changed as a result of the operation. */
+        public boolean reduce ( Object o ) {
+            SortedMSetNode node = find( o );
+
+            if ( node == null ) {
+                return false;
+            }
+            else {
+                numberOfElements -= 1;
+                root = delete( root, node.element, 1 );
+                numberOfModifications += 1;
+                return true;
+            }
+        }
+
+        /** Returns the number of elements in this collection, including duplicates. */
+        public int size () {
+            return numberOfElements;
+        }
+
+        /** Returns the number of UNIQUE elements in this collection (i.e., not including duplicates). */
+        public int unique () {
+            return numberOfUniqueElements;
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection, in ascending order. */
+        public Object[] toArray () {
+            return toArray( new Object[ 0 ] );
+        }
+
+        /** Returns an array containing all of the UNIQUE elements in this collection, in ascending order, in
+                the specified array if it is large enough (in which case the position after the last element,
+                if any, is set to null), or else in a new array of the same runtime type. */
+        public Object[] toArray ( Object[] a ) {
+
+            if ( a == null ) {
+                throw new NullPointerException();
+            }
+            else if ( a.length < numberOfUniqueElements ) {
+                a = ( Object[] ) java.lang.reflect.Array.newInstance( a.getClass().getComponentType(), numberOfUniqueElements );
+            }
+            else if ( a.length > numberOfUniqueElements ) {
+                a[ numberOfUniqueElements ] = null;
+            }
+            /*
+                The iterator walks the tree in order, so the elements are placed in ascending order.
+            */
+            int i = 0;
+
+            for ( Object o : this ) {
+                a[ i ] = o;
+                i += 1;
+            }
+
+            return a;
+        }
+
+        /*
+            Returns the root of the tree, for iterators.
+        */
+        SortedMSetNode getRoot () {
+            return root;
+        }
+
+        /*
+            Returns the number of times this SortedMSet has been changed, so that iterators can detect
+            changes made while they are in use.
+        */
+        int getNumberOfModifications () {
+            return numberOfModifications;
+        }
+
+        /*
+            Returns the number of elements, including duplicates, that are less than or equal to the
+            specified element.
+        */
+        private int countAtMost ( Comparable key ) {
+            SortedMSetNode node = root;
+            int numberOfElementsAtMost = 0;
+
+            while ( node != null ) {
+
+                if ( key.compareTo( node.element ) >= 0 ) {
+                    numberOfElementsAtMost += total( node.left ) + node.count;
+                    node = node.right;
+                }
+                else {
+                    node = node.left;
+                }
+            }
+
+            return numberOfElementsAtMost;
+        }
+
+        /*
+            Returns the node that holds the specified element, or null if there is none.
+        */
+        private SortedMSetNode find ( Object o ) {
+
+            if ( o == null ) {
+                throw new NullPointerException();
+            }
+            else {
+                Comparable key = ( Comparable ) o;
+                SortedMSetNode node = root;
+
+                while ( node != null ) {
+                    int comparison = key.compareTo( node.element );
+
+                    if ( comparison == 0 ) {
+                        return node;
+                    }
+
+                    node = ( ( comparison < 0 ) ? node.left : node.right );
+                }
+
+                return null;
+            }
+        }
+
+        /*
+            Adds a copy of the specified element to the subtree rooted at the specified node, and returns
+            the (rebalanced) root of the subtree.
+        */
+        private SortedMSetNode insert ( SortedMSetNode node, Comparable key ) {
+
+            if ( node == null ) {
+                numberOfUniqueElements += 1;
+                return new SortedMSetNode( key );
+            }
+
+            int comparison = key.compareTo( node.element );
+
+            if ( comparison == 0 ) {
+                node.count += 1;
+                node.total += 1;
+                return node;
+            }
+            else if ( comparison < 0 ) {
+                node.left = insert( node.left, key );
+            }
+            else {
+                node.right = insert( node.right, key );
+            }
+
+            return rebalance( node );
+        }
+
+        /*
+            Removes the specified number of copies of an element (which must be in the tree) from the
+            subtree rooted at the specified node, and returns the (rebalanced) root of the subtree. The
+            node of the element is unlinked once it has no copies left.
+        */
+        private SortedMSetNode delete ( SortedMSetNode node, Comparable key, int copies ) {
+            int comparison = key.compareTo( node.element );
+
+            if ( comparison < 0 ) {
+                node.left = delete( node.left, key, copies );
+            }
+            else if ( comparison > 0 ) {
+                node.right = delete( node.right, key, copies );
+            }
+            else if ( node.count > copies ) {
+                node.count -= copies;
+                node.total -= copies;
+                return node;
+            }
+            else {
+                numberOfUniqueElements -= 1;
+
+                if ( node.left == null ) {
+                    return node.right;
+                }
+                else if ( node.right == null ) {
+                    return node.left;
+                }
+                else {
+                    /*
+                        A node with two children takes the place of its successor, which is unlinked from
+                        the right subtree.
+                    */
+                    SortedMSetNode successor = node.right;
+
+                    while ( successor.left != null ) {
+                        successor = successor.left;
+                    }
+
+                    successor.right = deleteMinimum( node.right );
+                    successor.left = node.left;
+                    node = successor;
+                }
+            }
+
+            return rebalance( node );
+        }
+
+        /*
+            Unlinks the node with the smallest element from the subtree rooted at the specified node, and
+            returns the (rebalanced) root of the subtree.
+        */
+        private SortedMSetNode deleteMinimum ( SortedMSetNode node ) {
+
+            if ( node.left == null ) {
+                return node.right;
+            }
+
+            node.left = deleteMinimum( node.left );
+            return rebalance( node );
+        }
+
+        /*
+            Restores the height, total and AVL balance of the specified node, whose subtrees are already
+            balanced, and returns the root of the subtree that takes its place.
+        */
+        private static SortedMSetNode rebalance ( SortedMSetNode node ) {
+            int balance = height( node.left ) - height( node.right );
+
+            if ( balance > 1 ) {
+
+                if ( height( node.left.left ) < height( node.left.right ) ) {
+                    node.left = rotateLeft( node.left );
+                }
+
+                return rotateRight( node );
+            }
+            else if ( balance < -1 ) {
+
+                if ( height( node.right.right ) < height( node.right.left ) ) {
+                    node.right = rotateRight( node.right );
+                }
+
+                return rotateLeft( node );
+            }
+            else {
+                update( node );
+                return node;
+            }
+        }
+
+        /*
+            Rotates the specified node down to the right, and returns its left child, which takes its place.
+        */
+        private static SortedMSetNode rotateRight ( SortedMSetNode node ) {
+            SortedMSetNode left = node.left;
+            node.left = left.right;
+            left.right = node;
+            update( node );
+            update( left );
+            return left;
+        }
+
+        /*
+            Rotates the specified node down to the left, and returns its right child, which takes its place.
+        */
+        private static SortedMSetNode rotateLeft ( SortedMSetNode node ) {
+            SortedMSetNode right = node.right;
+            node.right = right.left;
+            right.left = node;
+            update( node );
+            update( right );
+            return right;
+        }
+
+        /*
+            Recomputes the height and total of the specified node from those of its children.
+        */
+        private static void update ( SortedMSetNode node ) {
+            node.height = Math.max( height( node.left ), height( node.right ) ) + 1;
+            node.total = total( node.left ) + node.count + total( node.right );
+        }
+
+        private static int height ( SortedMSetNode node ) {
+            return ( ( node == null ) ? 0 : node.height );
+        }
+
+        private static int total ( SortedMSetNode node ) {
+            return ( ( node == null ) ? 0 : node.total );
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Returns a stringy representation of this SortedMSet, in ascending order. Overrides Object.toString(). */
+        public String toString () {
+            StringBuilder s = new StringBuilder();
+
+            for ( Object o : this ) {
+
+                if ( s.length() > 0 ) {
+                    s.append( ", " );
+                }
+
+                s.append( o ).append( " x " ).append( count( o ) );
+            }
+
+            return s.toString();
+        }
+}
+
+/*
+    A node of the tree of a SortedMSet: a unique element, its number of copies, and the height and
+    total number of copies of the subtree that it roots.
+*/
+class SortedMSetNode {
+
+    Comparable element;
+    int count;
+    int height;
+    int total;
+    SortedMSetNode left;
+    SortedMSetNode right;
+
+    SortedMSetNode ( Comparable element ) {
+        this.element = element;
+        count = 1;
+        height = 1;
+        total = 1;
+        left = null;
+        right = null;
+    }
+}
+
+/*
+    An Iterator over the unique elements of a SortedMSet, in ascending order. It keeps the path of
+    nodes whose elements are still to come on a stack, whose depth is bounded by the height of the tree.
+*/
+class SortedMSetIterator implements Iterator {
+
+    private SortedMSet bag;
+    private SortedMSetNode[] stack;
+    private int depth;
+    private Object lastReturned;
+    private int expectedNumberOfModifications;
+
+    public SortedMSetIterator ( SortedMSet bag ) {
+        this.bag = bag;
+        stack = new SortedMSetNode[ 48 ];
+        depth = 0;
+        lastReturned = null;
+        expectedNumberOfModifications = bag.getNumberOfModifications();
+        pushLeftPath( bag.getRoot() );
+    }
+
+    public boolean hasNext () {
+        return ( depth > 0 );
+    }
+
+    public Object next () {
+        checkForModification();
+
+        if ( !hasNext() ) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        depth -= 1;
+        SortedMSetNode node = stack[ depth ];
+        pushLeftPath( node.right );
+        lastReturned = node.element;
+        return lastReturned;
+    }
+
+    /*
+        Removes all copies of the element that was last returned. Since the tree may be rebalanced, the
+        stack is rebuilt from the root, down to the first element after the one that was removed.
+    */
+    public void remove () {
+        checkForModification();
+
+        if ( lastReturned == null ) {
+            throw new IllegalStateException();
+        }
+
+        bag.remove( lastReturned );
+        expectedNumberOfModifications = bag.getNumberOfModifications();
+        depth = 0;
+
+        for ( SortedMSetNode node = bag.getRoot(); node != null; ) {
+
+            if ( ( ( Comparable ) lastReturned ).compareTo( node.element ) < 0 ) {
+                stack[ depth ] = node;
+                depth += 1;
+                node = node.left;
+            }
+            else {
+                node = node.right;
+            }
+        }
+
+        lastReturned = null;
+    }
+
+    private void pushLeftPath ( SortedMSetNode node ) {
+
+        while ( node != null ) {
+            stack[ depth ] = node;
+            depth += 1;
+            node = node.left;
+        }
+    }
+
+    private void checkForModification () {
+
+        if ( bag.getNumberOfModifications() != expectedNumberOfModifications ) {
+            throw new java.util.ConcurrentModificationException();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Iterator;
+
+/**
+        A WindowedMSet counts the elements of a stream over a sliding window of time, e.g., "the last
+        five minutes." The window is divided into a fixed number of slices of equal length, each of
+        which is an MSet holding the elements added during that slice, and an aggregate MSet holds the
+        sum of all of the slices. count, contains, size and unique read the aggregate, and so reflect
+        only the elements added within the window.
+
+        When time moves past the end of the newest slice, the oldest slice expires: its counts are
+        subtracted from the aggregate, one unique element at a time, and it is cleared and reused as the
+        newest slice. Expiring a slice therefore takes time in proportion to the number of UNIQUE
+        elements in it, however many copies they have.
+
+        The window is anchored at the first call to advanceTo: the time given then, whatever its
+        origin (e.g., System.currentTimeMillis()), falls in the newest slice, and the elements added
+        before it are counted in that slice. Slices are aligned to whole multiples of their length, so
+        the first slice may be cut short. Until advanceTo is first called, only advance moves the
+        window.
+
+        window and iterator share one snapshot of the aggregate, which is taken when one of them is
+        first called and handed out again until the next change to the window (add, advance, advanceTo
+        or clear), so iterating over an unchanged window does not take a new snapshot each time.
+
+        Optionally, older slices can be given less weight: weightedCount multiplies the copies in each
+        slice by the decay factor once for every slice that has passed since it was the newest.
+*/
+
+public class WindowedMSet extends Object implements Iterable {
+
+        private MSet[] slices;
+        private MSet aggregate;
+        private int newest;
+        private long lengthOfSlice;
+        private long numberOfNewestSlice;
+        private boolean isAnchored;
+        private MSet currentWindow;
+        private double decay;
+
+        /** Constructs a WindowedMSet with the specified number of slices, each the specified length of time
+                (e.g., in milliseconds), in which all slices have the same weight. */
+        public WindowedMSet ( int numberOfSlices, long lengthOfSlice ) {
+            this( numberOfSlices, lengthOfSlice, 1.0 );
+        }
+
+        /** Constructs a WindowedMSet with the specified number of slices, each the specified length of time,
+                whose weight is multiplied by the specified decay factor (between 0 and 1) as each slice passes. */
+        public WindowedMSet ( int numberOfSlices, long lengthOfSlice, double decay ) {
+
+            if ( ( numberOfSlices <= 0 ) || ( lengthOfSlice <= 0 ) ) {
+                throw new IllegalArgumentException();
+            }
+            else if ( !( decay > 0.0 ) || !( decay <= 1.0 ) ) {
+                throw new IllegalArgumentException();
+            }
+            else {
+                slices = new MSet[ numberOfSlices ];
+
+                for ( int i = 0; i < numberOfSlices; i++ ) {
+                    slices[ i ] = new MSet();
+                }
+
+                aggregate = new MSet();
+                newest = 0;
+                this.lengthOfSlice = lengthOfSlice;
+                numberOfNewestSlice = 0;
+                isAnchored = false;
+                currentWindow = null;
+                this.decay = decay;
+            }
+        }
+
+        /** Adds a copy of the specified element to the newest slice of this WindowedMSet. */
+        public boolean add ( Object o ) {
+            return add( o, 1 );
+        }
+
+        /** Adds the specified (non-negative) number of copies of an element to the newest slice of this
+                WindowedMSet. Returns true iff this WindowedMSet changed as a result of the operation. */
+        public boolean add ( Object o, int copies ) {
+            /*
+                The aggregate is changed first, since it holds at least as many elements as the slice and so
+                is the first to reject an addition that would overflow.
+            */
+            boolean bagChanged = aggregate.add( o, copies );
+            slices[ newest ].add( o, copies );
+
+            if ( bagChanged ) {
+                currentWindow = null;
+            }
+
+            return bagChanged;
+        }
+
+        /** Moves the window forward to include the specified time (which is measured in the same units as the
+                length of a slice), expiring every slice that ends before the window starts. Times earlier
+                than the newest slice are ignored. The first call anchors the window at the specified time,
+                and expires nothing. */
+        public void advanceTo ( long time ) {
+            long numberOfSlice = Math.floorDiv( time, lengthOfSlice );
+
+            if ( !isAnchored ) {
+                numberOfNewestSlice = numberOfSlice;
+                isAnchored = true;
+            }
+            else if ( numberOfSlice > numberOfNewestSlice ) {
+                long numberOfExpiredSlices = numberOfSlice - numberOfNewestSlice;
+                /*
+                    If every slice has expired, all of them are cleared at once, rather than being subtracted
+                    from the aggregate one by one.
+                */
+                if ( numberOfExpiredSlices >= slices.length ) {
+                    clear();
+                }
+                else {
+
+                    for ( long i = 0; i < numberOfExpiredSlices; i++ ) {
+                        advance();
+                    }
+                }
+
+                numberOfNewestSlice = numberOfSlice;
+            }
+        }
+
+        /** Expires the oldest slice of this WindowedMSet, and starts a new (empty) newest slice in its place. */
+        public void advance () {
+            newest = ( newest + 1 ) % slices.length;
+            MSet oldest = slices[ newest ];
+
+            for ( int i = 1; i <= oldest.unique(); i++ ) {
+                aggregate.reduce( oldest.get( i ), oldest.getCount( i ) );
+            }
+
+            oldest.clear();
+            numberOfNewestSlice += 1;
+            currentWindow = null;
+        }
+
+        /** Removes all of the elements from this WindowedMSet. */
+        public void clear () {
+
+            for ( int i = 0; i < slices.length; i++ ) {
+                slices[ i ].clear();
+            }
+
+            aggregate.clear();
+            currentWindow = null;
+        }
+
+        /** Returns true if the window contains the specified element. */
+        public boolean contains ( Object o ) {
+            return aggregate.contains( o );
+        }
+
+        /** Returns the number of copies of the specified element in the window. */
+        public int count ( Object o ) {
+            return aggregate.count( o );
+        }
+
+        /** Returns the number of copies of the specified element in the window, where the copies in each
+                slice are weighted by the decay factor raised to the number of slices since that slice was
+                the newest. */
+        public double weightedCount ( Object o ) {
+            double weightedCount = 0.0;
+            double weight = 1.0;
+
+            for ( int age = 0; age < slices.length; age++ ) {
+                weightedCount += weight * slices[ Math.floorMod( newest - age, slices.length ) ].count( o );
+                weight *= decay;
+            }
+
+            return weightedCount;
+        }
+
+        /** Returns true if the window contains no elements. */
+        public boolean isEmpty () {
+            return aggregate.isEmpty();
+        }
+
+        /** Returns an iterator over the UNIQUE elements in the window, as it was when the iterator was created. */
+        public Iterator iterator () {
+            return window().iterator();
+        }
+
+        /** Returns the number of elements in the window, including duplicates. */
+        public int size () {
+            return aggregate.size();
+        }
+
+        /** Returns the number of UNIQUE elements in the window (i.e., not including duplicates). */
+        public int unique () {
+            return aggregate.unique();
+        }
+
+        /** Returns a read-only snapshot (see MSet.snapshot) of the elements in the window. The same snapshot
+                is returned until the window next changes. */
+        public MSet window () {
+
+            if ( currentWindow == null ) {
+                currentWindow = aggregate.snapshot();
+            }
+
+            return currentWindow;
+        }
+
+/* The following override methods inherited from Object: */
+
+        /** Returns a stringy representation of this WindowedMSet. Overrides Object.toString(). */
+        public String toString () {
+            return aggregate.toString();
+        }
+}